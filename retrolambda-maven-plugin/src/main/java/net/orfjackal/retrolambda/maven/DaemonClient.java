@@ -0,0 +1,272 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.maven;
+
+import net.orfjackal.retrolambda.*;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.*;
+import java.net.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * Sends the work to a Retrolambda daemon, starting one if it isn't running already.
+ * See {@link Daemon} for the protocol. This runs under Maven's JVM, which may be
+ * older than Java 8, so this can't use the daemon's code directly.
+ */
+class DaemonClient {
+
+    private static final long STARTUP_TIMEOUT_MILLIS = 30000;
+    private static final long STARTUP_POLL_MILLIS = 100;
+
+    // hashing the JAR file for every module of a multi-module build would be wasteful
+    private static final Map<String, String> daemonIds = new HashMap<String, String>();
+
+    private final File daemonDir;
+    private final String version;
+    private final Log log;
+    private String daemonId;
+    private String token;
+
+    DaemonClient(String version, Log log) {
+        this(new File(System.getProperty("user.home"), ".retrolambda"), version, log);
+    }
+
+    DaemonClient(File daemonDir, String version, Log log) {
+        this.daemonDir = daemonDir;
+        this.version = version;
+        this.log = log;
+    }
+
+    /**
+     * Returns the exit code of Retrolambda.
+     */
+    int run(Properties config, String javaCommand, File retrolambdaJar) throws IOException {
+        daemonId = getDaemonId(version, retrolambdaJar);
+        Socket socket = connectOrStartDaemon(javaCommand, retrolambdaJar);
+        try {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+            out.write(token + "\n");
+            config.store(out, null);
+            out.flush();
+            socket.shutdownOutput();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(Daemon.OUTPUT_PREFIX)) {
+                    log.info(line.substring(Daemon.OUTPUT_PREFIX.length()));
+                } else if (line.startsWith(Daemon.EXIT_PREFIX)) {
+                    return Integer.parseInt(line.substring(Daemon.EXIT_PREFIX.length()));
+                }
+            }
+            throw new IOException("The Retrolambda daemon closed the connection without a response");
+        } finally {
+            socket.close();
+        }
+    }
+
+    private Socket connectOrStartDaemon(String javaCommand, File retrolambdaJar) throws IOException {
+        // The modules of a parallel build, and other builds, may need the daemon
+        // at the same time, but only one of them should start it. The daemon then
+        // processes their requests concurrently.
+        synchronized (DaemonClient.class) {
+            if (!daemonDir.isDirectory() && !daemonDir.mkdirs()) {
+                throw new IOException("Failed to create " + daemonDir);
+            }
+            RandomAccessFile lockFile = new RandomAccessFile(new File(daemonDir, "daemon-" + daemonId + ".lock"), "rw");
+            try {
+                lockFile.getChannel().lock();
+                Socket socket = connect();
+                if (socket == null) {
+                    socket = startDaemon(javaCommand, retrolambdaJar);
+                }
+                return socket;
+            } finally {
+                // also releases the lock
+                lockFile.close();
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Properties info = readInfoFile();
+        if (info == null) {
+            return null;
+        }
+        try {
+            Socket socket = new Socket(InetAddress.getByName(info.getProperty("host")), Integer.parseInt(info.getProperty("port")));
+            token = info.getProperty("token");
+            return socket;
+        } catch (ConnectException e) {
+            // the daemon has died without removing its info file
+            return null;
+        }
+    }
+
+    private Socket startDaemon(String javaCommand, File retrolambdaJar) throws IOException {
+        File jar = copyForDaemon(retrolambdaJar);
+        log.info("Starting the Retrolambda daemon");
+        File infoFile = getInfoFile();
+        if (infoFile.exists() && !infoFile.delete()) {
+            throw new IOException("Failed to delete " + infoFile);
+        }
+        Process process = new ProcessBuilder(
+                javaCommand,
+                "-javaagent:" + jar.getAbsolutePath(),
+                "-D" + Config.DAEMON + "=true",
+                "-jar", jar.getAbsolutePath())
+                .redirectErrorStream(true)
+                .start();
+        process.getOutputStream().close();
+
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (hasExited(process)) {
+                throw new IOException("Failed to start the Retrolambda daemon:\n" + readFully(process.getInputStream()));
+            }
+            Socket socket = connect();
+            if (socket != null) {
+                // detach from the daemon, so that it will keep running after Maven exits
+                process.getInputStream().close();
+                return socket;
+            }
+            sleep(STARTUP_POLL_MILLIS);
+        }
+        process.destroy();
+        throw new IOException("Timed out waiting for the Retrolambda daemon to start");
+    }
+
+    /**
+     * The daemon keeps its JAR file open, so it must not be run from the project's
+     * build directory, where the JAR file would be overwritten or deleted.
+     * The copy is named after the hash of its content, so an existing copy
+     * is always up to date.
+     */
+    private File copyForDaemon(File retrolambdaJar) throws IOException {
+        File jar = new File(daemonDir, "retrolambda-" + daemonId + ".jar");
+        if (jar.isFile()) {
+            return jar;
+        }
+        File tmp = File.createTempFile("retrolambda", ".tmp", daemonDir);
+        copy(retrolambdaJar, tmp);
+        if (!tmp.renameTo(jar)) {
+            tmp.delete();
+            throw new IOException("Failed to create " + jar);
+        }
+        return jar;
+    }
+
+    /**
+     * Must match the ID which {@link Daemon} computes from its own JAR file.
+     * Snapshot versions are rebuilt without changing the version number, so
+     * the version alone would let an outdated daemon process the requests.
+     */
+    static String getDaemonId(String version, File jar) throws IOException {
+        String key = version + ":" + jar.getAbsolutePath() + ":" + jar.length() + ":" + jar.lastModified();
+        synchronized (daemonIds) {
+            String id = daemonIds.get(key);
+            if (id == null) {
+                id = version + "-" + toHex(sha256(jar)).substring(0, 16);
+                daemonIds.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    private static byte[] sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private Properties readInfoFile() throws IOException {
+        File infoFile = getInfoFile();
+        if (!infoFile.isFile()) {
+            return null;
+        }
+        Properties info = new Properties();
+        InputStream in = new FileInputStream(infoFile);
+        try {
+            info.load(in);
+        } finally {
+            in.close();
+        }
+        return info;
+    }
+
+    private File getInfoFile() {
+        return new File(daemonDir, "daemon-" + daemonId + ".properties");
+    }
+
+    private static boolean hasExited(Process process) {
+        try {
+            process.exitValue();
+            return true;
+        } catch (IllegalThreadStateException e) {
+            return false;
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Retrolambda daemon to start");
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toString();
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
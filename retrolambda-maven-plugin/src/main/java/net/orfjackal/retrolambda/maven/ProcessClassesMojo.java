@@ -7,6 +7,7 @@ package net.orfjackal.retrolambda.maven;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import net.orfjackal.retrolambda.*;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.*;
@@ -17,10 +18,10 @@ import org.apache.maven.toolchain.*;
 import java.io.*;
 import java.util.*;
 
-import static org.twdata.maven.mojoexecutor.MojoExecutor.*;
-
 abstract class ProcessClassesMojo extends AbstractMojo {
 
+    private static final String RETROLAMBDA_ARTIFACT = "net.orfjackal.retrolambda:retrolambda";
+
     private static final Map<String, Integer> targetBytecodeVersions = ImmutableMap.of(
             "1.5", 49,
             "1.6", 50,
@@ -31,15 +32,15 @@ abstract class ProcessClassesMojo extends AbstractMojo {
     @Component
     ToolchainManager toolchainManager;
 
-    @Component
-    private BuildPluginManager pluginManager;
-
     @Parameter(defaultValue = "${session}", readonly = true)
     private MavenSession session;
 
     @Parameter(defaultValue = "${project}", readonly = true)
     protected MavenProject project;
 
+    @Parameter(defaultValue = "${plugin.artifactMap}", readonly = true)
+    private Map<String, Artifact> pluginArtifactMap;
+
     /**
      * Directory of the Java 8 installation for running Retrolambda.
      * The JRE to be used will be determined in priority order:
@@ -77,6 +78,16 @@ abstract class ProcessClassesMojo extends AbstractMojo {
     @Parameter(defaultValue = "false", property = "retrolambdaDefaultMethods", required = true)
     public boolean defaultMethods;
 
+    /**
+     * Whether to generate the lambda classes directly from the bytecode, instead of
+     * capturing the classes generated by Java's lambda metafactory. This avoids
+     * loading the classes being backported.
+     *
+     * @since 2.1.0
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaSynthesizeLambdas")
+    public boolean synthesizeLambdas;
+
     /**
      * Forces Retrolambda to run in a separate process. The default is not to fork,
      * in which case Maven has to run under Java 8, or this plugin will fall back
@@ -89,6 +100,31 @@ abstract class ProcessClassesMojo extends AbstractMojo {
     @Parameter(defaultValue = "false")
     public boolean fork;
 
+    /**
+     * Whether the forked Retrolambda process should be a daemon which stays running
+     * between builds, so that every build doesn't need to start and warm up a new JVM.
+     * The daemon is started when needed, and it stops after being idle for 3 hours.
+     * Has an effect only when forking (see {@code fork}).
+     *
+     * @since 2.1.0
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaDaemon")
+    public boolean daemon;
+
+    /**
+     * Whether to process only the classes which have changed since the previous run.
+     * The sizes and modification times of the class files are remembered under
+     * {@code target/retrolambda}. When backporting default methods, also the classes
+     * which depend on the changed classes are processed. That is possible only if the
+     * output directory is different from the input directory, so otherwise all classes
+     * are processed every time. The output files of the removed classes, including their
+     * lambda classes, are deleted.
+     *
+     * @since 2.1.0
+     */
+    @Parameter(defaultValue = "false", property = "retrolambdaIncremental")
+    public boolean incremental;
+
     protected abstract File getInputDir();
 
     protected abstract File getOutputDir();
@@ -99,10 +135,98 @@ abstract class ProcessClassesMojo extends AbstractMojo {
     public void execute() throws MojoExecutionException {
         validateTarget();
         validateFork();
+        Properties config = getConfig();
+        StampFile stampFile = null;
+        if (incremental && defaultMethods && isSameDirectory(getInputDir(), getOutputDir())) {
+            // the classes which depend on the changed classes have already been backported in place,
+            // so they can't be backported again, and their default method delegates could go stale
+            getLog().warn("Incremental processing with default methods needs an output directory " +
+                    "which is different from the input directory - processing all classes");
+        } else if (incremental) {
+            stampFile = new StampFile(getStateFile(".stamp"));
+            if (!prepareIncrementalRun(config, stampFile)) {
+                return;
+            }
+        }
         if (fork) {
-            processClassesInForkedProcess();
+            processClassesInForkedProcess(config);
         } else {
-            processClassesInCurrentProcess();
+            processClassesInCurrentProcess(config);
+        }
+        if (stampFile != null) {
+            try {
+                stampFile.save(getInputDir(), describeConfig());
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to save " + getStateFile(".stamp"), e);
+            }
+        }
+    }
+
+    /**
+     * Returns false if there is nothing to do, because no classes have changed.
+     */
+    private boolean prepareIncrementalRun(Properties config, StampFile stampFile) throws MojoExecutionException {
+        try {
+            List<File> changed = stampFile.getChangedFiles(getInputDir(), describeConfig());
+            List<File> removed = stampFile.getRemovedFiles(describeConfig());
+            if (changed != null && changed.isEmpty() && removed.isEmpty()) {
+                getLog().info("Skipping Retrolambda; no classes have changed");
+                return false;
+            }
+            // if this run fails, the next run must process all classes
+            stampFile.delete();
+
+            // the output directory would otherwise keep the classes which are not anymore in the input directory
+            if (removed != null && !removed.isEmpty()) {
+                List<File> deleted = StampFile.deleteOutputs(removed, getInputDir(), getOutputDir());
+                getLog().info("Removed " + removed.size() + " classes; deleted " + deleted.size() + " output files");
+            }
+
+            // needed for finding the classes which depend on the changed classes
+            config.setProperty(Config.INDEX_FILE, getStateFile(".index").getAbsolutePath());
+            if (changed != null) {
+                getLog().info("Processing " + changed.size() + " changed classes");
+                File includedFilesFile = getStateFile("-included-files.txt");
+                writeLines(includedFilesFile, changed);
+                config.setProperty(Config.INCLUDED_FILES_FILE, includedFilesFile.getAbsolutePath());
+            }
+            return true;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to find the changed classes", e);
+        }
+    }
+
+    private String describeConfig() throws MojoExecutionException {
+        // everything which affects which files are written and what they contain
+        return "target=" + target +
+                ", defaultMethods=" + defaultMethods +
+                ", synthesizeLambdas=" + synthesizeLambdas +
+                ", outputDir=" + getOutputDir().getAbsolutePath() +
+                ", classpath=" + getClasspath() +
+                ", retrolambda=" + getRetrolambdaArtifact().getBaseVersion();
+    }
+
+    private static boolean isSameDirectory(File dir1, File dir2) {
+        try {
+            return dir1.getCanonicalFile().equals(dir2.getCanonicalFile());
+        } catch (IOException e) {
+            return dir1.getAbsoluteFile().equals(dir2.getAbsoluteFile());
+        }
+    }
+
+    private File getStateFile(String suffix) {
+        return new File(project.getBuild().getDirectory(), "retrolambda/" + getInputDir().getName() + suffix);
+    }
+
+    private static void writeLines(File file, List<File> lines) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            for (File line : lines) {
+                out.write(line.getPath() + "\n");
+            }
+        } finally {
+            out.close();
         }
     }
 
@@ -121,66 +245,90 @@ abstract class ProcessClassesMojo extends AbstractMojo {
         }
     }
 
-    private void processClassesInCurrentProcess() throws MojoExecutionException {
+    private void processClassesInCurrentProcess(Properties config) throws MojoExecutionException {
         getLog().info("Processing classes with Retrolambda");
         try {
-            Properties p = new Properties();
-            p.setProperty(Config.BYTECODE_VERSION, "" + targetBytecodeVersions.get(target));
-            p.setProperty(Config.DEFAULT_METHODS, "" + defaultMethods);
-            p.setProperty(Config.INPUT_DIR, getInputDir().getAbsolutePath());
-            p.setProperty(Config.OUTPUT_DIR, getOutputDir().getAbsolutePath());
-            p.setProperty(Config.CLASSPATH, getClasspath());
-            Retrolambda.run(new Config(p));
+            Retrolambda.run(new Config(config));
         } catch (Throwable t) {
             throw new MojoExecutionException("Failed to run Retrolambda", t);
         }
     }
 
-    private void processClassesInForkedProcess() throws MojoExecutionException {
-        String version = getRetrolambdaVersion();
-        getLog().info("Retrieving Retrolambda " + version);
-        retrieveRetrolambdaJar(version);
+    private Properties getConfig() {
+        Properties p = new Properties();
+        p.setProperty(Config.BYTECODE_VERSION, "" + targetBytecodeVersions.get(target));
+        p.setProperty(Config.DEFAULT_METHODS, "" + defaultMethods);
+        p.setProperty(Config.SYNTHESIZE_LAMBDAS, "" + synthesizeLambdas);
+        p.setProperty(Config.INPUT_DIR, getInputDir().getAbsolutePath());
+        p.setProperty(Config.OUTPUT_DIR, getOutputDir().getAbsolutePath());
+        p.setProperty(Config.CLASSPATH, getClasspath());
+        return p;
+    }
+
+    private void processClassesInForkedProcess(Properties config) throws MojoExecutionException {
+        Artifact retrolambda = getRetrolambdaArtifact();
+        File retrolambdaJar = retrolambda.getFile();
+        if (daemon) {
+            processClassesInDaemon(config, retrolambda.getBaseVersion(), retrolambdaJar);
+            return;
+        }
 
         getLog().info("Processing classes with Retrolambda");
-        String retrolambdaJar = getRetrolambdaJarPath();
-        executeMojo(
-                plugin(groupId("org.apache.maven.plugins"),
-                        artifactId("maven-antrun-plugin"),
-                        version("1.7")),
-                goal("run"),
-                configuration(element(
-                        "target",
-                        element("exec",
-                                attributes(
-                                        attribute("executable", getJavaCommand()),
-                                        attribute("failonerror", "true")),
-                                element("arg", attribute("value", "-Dretrolambda.bytecodeVersion=" + targetBytecodeVersions.get(target))),
-                                element("arg", attribute("value", "-Dretrolambda.defaultMethods=" + defaultMethods)),
-                                element("arg", attribute("value", "-Dretrolambda.inputDir=" + getInputDir().getAbsolutePath())),
-                                element("arg", attribute("value", "-Dretrolambda.outputDir=" + getOutputDir().getAbsolutePath())),
-                                element("arg", attribute("value", "-Dretrolambda.classpath=" + getClasspath())),
-                                element("arg", attribute("value", "-javaagent:" + retrolambdaJar)),
-                                element("arg", attribute("value", "-jar")),
-                                element("arg", attribute("value", retrolambdaJar))))),
-                executionEnvironment(project, session, pluginManager));
-    }
-
-    private void retrieveRetrolambdaJar(String version) throws MojoExecutionException {
-        // TODO: use Maven's built-in artifact resolving, so that we can refer to retrolambda.jar in the local repository without copying it
-        executeMojo(
-                plugin(groupId("org.apache.maven.plugins"),
-                        artifactId("maven-dependency-plugin"),
-                        version("2.8")),
-                goal("copy"),
-                configuration(element("artifactItems",
-                        element("artifactItem",
-                                element(name("groupId"), "net.orfjackal.retrolambda"),
-                                element(name("artifactId"), "retrolambda"),
-                                element(name("version"), version),
-                                element(name("overWrite"), "true"),
-                                element(name("outputDirectory"), getRetrolambdaJarDir()),
-                                element(name("destFileName"), getRetrolambdaJarName())))),
-                executionEnvironment(project, session, pluginManager));
+        List<String> command = new ArrayList<String>();
+        command.add(getJavaCommand());
+        for (String key : new TreeSet<String>(config.stringPropertyNames())) {
+            command.add("-D" + key + "=" + config.getProperty(key));
+        }
+        command.add("-javaagent:" + retrolambdaJar.getAbsolutePath());
+        command.add("-jar");
+        command.add(retrolambdaJar.getAbsolutePath());
+
+        int exitCode;
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .start();
+            process.getOutputStream().close();
+            BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String line;
+            while ((line = in.readLine()) != null) {
+                getLog().info(line);
+            }
+            exitCode = process.waitFor();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to run Retrolambda", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while running Retrolambda", e);
+        }
+        if (exitCode != 0) {
+            throw new MojoExecutionException("Retrolambda failed with exit code " + exitCode);
+        }
+    }
+
+    private void processClassesInDaemon(Properties config, String version, File retrolambdaJar) throws MojoExecutionException {
+        getLog().info("Processing classes with the Retrolambda daemon");
+        int exitCode;
+        try {
+            exitCode = new DaemonClient(version, getLog()).run(config, getJavaCommand(), retrolambdaJar);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to run the Retrolambda daemon", e);
+        }
+        if (exitCode != 0) {
+            throw new MojoExecutionException("Retrolambda failed with exit code " + exitCode);
+        }
+    }
+
+    /**
+     * The Retrolambda JAR is a dependency of this plugin, so Maven has already
+     * resolved it into the local repository, from where it can be run as-is.
+     */
+    private Artifact getRetrolambdaArtifact() throws MojoExecutionException {
+        Artifact artifact = pluginArtifactMap.get(RETROLAMBDA_ARTIFACT);
+        if (artifact == null || artifact.getFile() == null) {
+            throw new MojoExecutionException("Failed to find " + RETROLAMBDA_ARTIFACT + " among the plugin's dependencies");
+        }
+        return artifact;
     }
 
     String getJavaCommand() {
@@ -219,32 +367,4 @@ abstract class ProcessClassesMojo extends AbstractMojo {
             throw new RuntimeException(e);
         }
     }
-
-    private String getRetrolambdaJarPath() {
-        return getRetrolambdaJarDir() + "/" + getRetrolambdaJarName();
-    }
-
-    private String getRetrolambdaJarDir() {
-        return project.getBuild().getDirectory() + "/retrolambda";
-    }
-
-    private String getRetrolambdaJarName() {
-        return "retrolambda.jar";
-    }
-
-    private static String getRetrolambdaVersion() throws MojoExecutionException {
-        try {
-            InputStream is = ProcessClassesMojo.class.getResourceAsStream(
-                    "/META-INF/maven/net.orfjackal.retrolambda/retrolambda-maven-plugin/pom.properties");
-            try {
-                Properties p = new Properties();
-                p.load(is);
-                return p.getProperty("version");
-            } finally {
-                is.close();
-            }
-        } catch (IOException e) {
-            throw new MojoExecutionException("Failed to detect the Retrolambda version", e);
-        }
-    }
 }
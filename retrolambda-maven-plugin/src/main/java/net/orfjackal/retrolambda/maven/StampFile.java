@@ -0,0 +1,171 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.maven;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers the sizes and modification times of the class files after a successful
+ * run, so that the next run can process only the class files which have changed.
+ * Also the classes written by Retrolambda are remembered, so that when the output
+ * directory is the same as the input directory, they won't be processed again.
+ * The class files which have been removed since the last run are found from the
+ * same record, so that their backported classes can be removed from the output.
+ */
+class StampFile {
+
+    private final File file;
+
+    StampFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the class files which have been added or changed since the last run,
+     * or null if there is no record of the last run, or if it used a different configuration.
+     */
+    List<File> getChangedFiles(File inputDir, String config) throws IOException {
+        Map<String, String> previous = read(config);
+        if (previous == null) {
+            return null;
+        }
+        List<File> changed = new ArrayList<File>();
+        for (Map.Entry<String, String> entry : scan(inputDir).entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                changed.add(new File(entry.getKey()));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the class files which have been removed since the last run,
+     * or null if there is no record of the last run, or if it used a different configuration.
+     */
+    List<File> getRemovedFiles(String config) throws IOException {
+        Map<String, String> previous = read(config);
+        if (previous == null) {
+            return null;
+        }
+        List<File> removed = new ArrayList<File>();
+        for (String path : new TreeSet<String>(previous.keySet())) {
+            File file = new File(path);
+            if (!file.isFile()) {
+                removed.add(file);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Deletes the classes which Retrolambda wrote for the removed input files: the backported
+     * class, its lambda classes and, for an interface, its companion class. When the output
+     * directory is different from the input directory, a file which is still in the input
+     * directory is not deleted, because it will stay up-to-date.
+     *
+     * @return the deleted files
+     */
+    static List<File> deleteOutputs(List<File> removedFiles, File inputDir, File outputDir) throws IOException {
+        boolean inPlace = inputDir.getCanonicalFile().equals(outputDir.getCanonicalFile());
+        String inputPrefix = inputDir.getAbsolutePath() + File.separator;
+        List<File> deleted = new ArrayList<File>();
+        for (File removed : removedFiles) {
+            String path = removed.getAbsolutePath();
+            if (!path.startsWith(inputPrefix) || !path.endsWith(".class")) {
+                continue;
+            }
+            String relativePath = path.substring(inputPrefix.length());
+            File inputPackage = new File(inputDir, relativePath).getParentFile();
+            File outputPackage = new File(outputDir, relativePath).getParentFile();
+            File[] outputs = outputPackage.listFiles();
+            if (outputs == null) {
+                continue;
+            }
+            Pattern outputsOfRemoved = getOutputsPattern(removed.getName());
+            for (File output : outputs) {
+                if (!outputsOfRemoved.matcher(output.getName()).matches()) {
+                    continue;
+                }
+                if (!inPlace && new File(inputPackage, output.getName()).exists()) {
+                    continue;
+                }
+                if (!output.delete() && output.exists()) {
+                    throw new IOException("Failed to delete " + output);
+                }
+                deleted.add(output);
+            }
+        }
+        return deleted;
+    }
+
+    private static Pattern getOutputsPattern(String classFileName) {
+        String simpleName = Pattern.quote(classFileName.substring(0, classFileName.length() - ".class".length()));
+        // the same naming as LambdaNaming.LAMBDA_CLASS and the companion classes of the interfaces
+        return Pattern.compile(simpleName + "(\\$|\\$\\$Lambda\\$\\d+)?\\.class");
+    }
+
+    void save(File inputDir, String config) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            out.write(config + "\n");
+            for (Map.Entry<String, String> entry : scan(inputDir).entrySet()) {
+                out.write(entry.getValue() + " " + entry.getKey() + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    void delete() throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    private Map<String, String> read(String config) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            if (!config.equals(in.readLine())) {
+                return null;
+            }
+            Map<String, String> stamps = new HashMap<String, String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                // the stamp contains exactly one space, and the path comes after it
+                int pathStart = line.indexOf(' ', line.indexOf(' ') + 1) + 1;
+                stamps.put(line.substring(pathStart), line.substring(0, pathStart - 1));
+            }
+            return stamps;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Map<String, String> scan(File inputDir) {
+        Map<String, String> stamps = new TreeMap<String, String>();
+        scan(inputDir, stamps);
+        return stamps;
+    }
+
+    private static void scan(File dir, Map<String, String> stamps) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                scan(file, stamps);
+            } else if (file.getName().endsWith(".class")) {
+                stamps.put(file.getAbsolutePath(), file.length() + " " + file.lastModified());
+            }
+        }
+    }
+}
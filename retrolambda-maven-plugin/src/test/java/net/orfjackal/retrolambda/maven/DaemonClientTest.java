@@ -0,0 +1,151 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.maven;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DaemonClientTest {
+
+    private static final String VERSION = "1.2.3";
+    private static final String TOKEN = "secret";
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private final List<String> logged = new CopyOnWriteArrayList<String>();
+    private final SystemStreamLog log = new SystemStreamLog() {
+        @Override
+        public void info(CharSequence content) {
+            logged.add(content.toString());
+        }
+    };
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private File daemonDir;
+    private File retrolambdaJar;
+
+    @Before
+    public void setup() throws IOException {
+        daemonDir = tempDir.newFolder("daemon");
+        retrolambdaJar = tempDir.newFile("retrolambda.jar");
+        write(retrolambdaJar, "jar content");
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sends_the_access_token_and_the_configuration_to_the_daemon() throws Exception {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName(null));
+        try {
+            writeInfoFile(server);
+            Future<List<String>> request = executor.submit(respond(server, "out hello\nexit 3\n"));
+            Properties config = new Properties();
+            config.setProperty("retrolambda.inputDir", "/input");
+
+            int exitCode = new DaemonClient(daemonDir, VERSION, log).run(config, "java", retrolambdaJar);
+
+            assertThat(request.get(10, TimeUnit.SECONDS).get(0), is(TOKEN));
+            assertThat(request.get(), hasItem("retrolambda.inputDir=/input"));
+            assertThat(logged, contains("hello"));
+            assertThat(exitCode, is(3));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void fails_if_the_daemon_closes_the_connection_without_an_exit_code() throws Exception {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName(null));
+        try {
+            writeInfoFile(server);
+            executor.submit(respond(server, "out hello\n"));
+
+            try {
+                new DaemonClient(daemonDir, VERSION, log).run(new Properties(), "java", retrolambdaJar);
+                Assert.fail("should have thrown an exception");
+            } catch (IOException e) {
+                assertThat(e.getMessage(), containsString("closed the connection without a response"));
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void the_daemon_is_identified_by_the_content_of_its_JAR_file() throws IOException {
+        File sameSize = tempDir.newFile("same-size.jar");
+        write(sameSize, "jar CONTENT");
+        File sameContent = tempDir.newFile("same-content.jar");
+        write(sameContent, "jar content");
+
+        String id = DaemonClient.getDaemonId(VERSION, retrolambdaJar);
+
+        assertThat(id, startsWith(VERSION + "-"));
+        assertThat(DaemonClient.getDaemonId(VERSION, sameSize), is(not(id)));
+        assertThat(DaemonClient.getDaemonId(VERSION, sameContent), is(id));
+        assertThat(DaemonClient.getDaemonId("1.2.4", sameContent), is(not(id)));
+    }
+
+
+    // helpers
+
+    private void writeInfoFile(ServerSocket server) throws IOException {
+        Properties info = new Properties();
+        info.setProperty("host", server.getInetAddress().getHostAddress());
+        info.setProperty("port", String.valueOf(server.getLocalPort()));
+        info.setProperty("token", TOKEN);
+        File infoFile = new File(daemonDir, "daemon-" + DaemonClient.getDaemonId(VERSION, retrolambdaJar) + ".properties");
+        OutputStream out = new FileOutputStream(infoFile);
+        try {
+            info.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Callable<List<String>> respond(final ServerSocket server, final String response) {
+        return new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                Socket socket = server.accept();
+                try {
+                    List<String> request = new ArrayList<String>();
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        request.add(line);
+                    }
+                    Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+                    out.write(response);
+                    out.flush();
+                    return request;
+                } finally {
+                    socket.close();
+                }
+            }
+        };
+    }
+
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
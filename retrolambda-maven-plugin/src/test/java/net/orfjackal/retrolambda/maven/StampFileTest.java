@@ -0,0 +1,174 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.maven;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StampFileTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private File inputDir;
+    private StampFile stampFile;
+    private File file1;
+    private File fileWithSpaces;
+
+    @Before
+    public void setup() throws IOException {
+        inputDir = tempDir.newFolder("input dir");
+        stampFile = new StampFile(new File(tempDir.getRoot(), "state/classes.stamp"));
+        file1 = createFile(new File(inputDir, "File1.class"), "v1");
+        fileWithSpaces = createFile(new File(inputDir, "sub dir/File 2.class"), "v1");
+    }
+
+    @Test
+    public void all_files_are_changed_when_there_is_no_previous_run() throws IOException {
+        assertThat(stampFile.getChangedFiles(inputDir, "config"), is(nullValue()));
+    }
+
+    @Test
+    public void all_files_are_changed_when_the_configuration_has_changed() throws IOException {
+        stampFile.save(inputDir, "config");
+
+        assertThat(stampFile.getChangedFiles(inputDir, "other config"), is(nullValue()));
+    }
+
+    @Test
+    public void no_files_are_changed_right_after_saving() throws IOException {
+        stampFile.save(inputDir, "config");
+
+        assertThat(stampFile.getChangedFiles(inputDir, "config"), is(empty()));
+    }
+
+    @Test
+    public void finds_modified_files() throws IOException {
+        stampFile.save(inputDir, "config");
+        createFile(file1, "version 2");
+
+        assertThat(stampFile.getChangedFiles(inputDir, "config"), contains(file1.getAbsoluteFile()));
+    }
+
+    @Test
+    public void finds_added_files() throws IOException {
+        stampFile.save(inputDir, "config");
+        File added = createFile(new File(inputDir, "Added.class"), "v1");
+
+        assertThat(stampFile.getChangedFiles(inputDir, "config"), contains(added.getAbsoluteFile()));
+    }
+
+    @Test
+    public void paths_may_contain_spaces() throws IOException {
+        stampFile.save(inputDir, "config with spaces");
+        assertThat("unchanged", stampFile.getChangedFiles(inputDir, "config with spaces"), is(empty()));
+
+        createFile(fileWithSpaces, "version 2");
+        assertThat("changed", stampFile.getChangedFiles(inputDir, "config with spaces"), contains(fileWithSpaces.getAbsoluteFile()));
+    }
+
+    @Test
+    public void ignores_non_class_files() throws IOException {
+        stampFile.save(inputDir, "config");
+        createFile(new File(inputDir, "resource.txt"), "v1");
+
+        assertThat(stampFile.getChangedFiles(inputDir, "config"), is(empty()));
+    }
+
+    @Test
+    public void deleting_forgets_the_previous_run() throws IOException {
+        stampFile.save(inputDir, "config");
+        stampFile.delete();
+
+        assertThat(stampFile.getChangedFiles(inputDir, "config"), is(nullValue()));
+    }
+
+    @Test
+    public void no_files_are_removed_when_there_is_no_previous_run() throws IOException {
+        assertThat(stampFile.getRemovedFiles("config"), is(nullValue()));
+    }
+
+    @Test
+    public void finds_removed_files() throws IOException {
+        stampFile.save(inputDir, "config");
+        assertThat("right after saving", stampFile.getRemovedFiles("config"), is(empty()));
+
+        assertThat(file1.delete(), is(true));
+        assertThat(stampFile.getRemovedFiles("config"), contains(file1.getAbsoluteFile()));
+        assertThat("removed files are not changed files", stampFile.getChangedFiles(inputDir, "config"), is(empty()));
+    }
+
+    @Test
+    public void deletes_the_outputs_of_the_removed_files() throws IOException {
+        File outputDir = tempDir.newFolder("output dir");
+        File removed = new File(inputDir, "pkg/Foo.class");
+        createFile(new File(inputDir, "pkg/FooBar.class"), "v1");
+        List<File> outputs = Arrays.asList(
+                createFile(new File(outputDir, "pkg/Foo.class"), "v1"),
+                createFile(new File(outputDir, "pkg/Foo$.class"), "v1"),
+                createFile(new File(outputDir, "pkg/Foo$$Lambda$1.class"), "v1"),
+                createFile(new File(outputDir, "pkg/Foo$$Lambda$12.class"), "v1"));
+        List<File> others = Arrays.asList(
+                createFile(new File(outputDir, "pkg/FooBar.class"), "v1"),
+                createFile(new File(outputDir, "pkg/Foo$Inner.class"), "v1"),
+                createFile(new File(outputDir, "pkg/Foo$Inner$$Lambda$1.class"), "v1"),
+                createFile(new File(outputDir, "Foo.class"), "v1"));
+
+        List<File> deleted = StampFile.deleteOutputs(Arrays.asList(removed), inputDir, outputDir);
+
+        assertThat(deleted, containsInAnyOrder(outputs.toArray()));
+        for (File output : outputs) {
+            assertThat(output + " exists", output.exists(), is(false));
+        }
+        for (File other : others) {
+            assertThat(other + " exists", other.exists(), is(true));
+        }
+    }
+
+    @Test
+    public void does_not_delete_the_outputs_which_are_still_in_the_input_directory() throws IOException {
+        File outputDir = tempDir.newFolder("output dir");
+        File removed = new File(inputDir, "Foo.class");
+        createFile(new File(inputDir, "Foo$.class"), "v1");
+        File output = createFile(new File(outputDir, "Foo$.class"), "v1");
+
+        StampFile.deleteOutputs(Arrays.asList(removed), inputDir, outputDir);
+
+        assertThat(output.exists(), is(true));
+    }
+
+    @Test
+    public void deletes_the_lambda_classes_of_the_removed_files_when_backporting_in_place() throws IOException {
+        File removed = new File(inputDir, "Foo.class");
+        File lambda = createFile(new File(inputDir, "Foo$$Lambda$1.class"), "v1");
+
+        StampFile.deleteOutputs(Arrays.asList(removed), inputDir, inputDir);
+
+        assertThat(lambda.exists(), is(false));
+        assertThat(file1.exists(), is(true));
+    }
+
+    private static File createFile(File file, String content) throws IOException {
+        long previousModified = file.lastModified();
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        // the file system's timestamp resolution may be coarse
+        if (previousModified != 0 && file.lastModified() == previousModified) {
+            file.setLastModified(previousModified + 2000);
+        }
+        return file;
+    }
+}
@@ -5,9 +5,10 @@
 
 package net.orfjackal.retrolambda;
 
+import net.orfjackal.retrolambda.files.TransformationCache;
 import org.objectweb.asm.Opcodes;
 
-import java.io.File;
+import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -22,6 +23,12 @@ public class Config {
     public static final String OUTPUT_DIR = PREFIX + "outputDir";
     public static final String CLASSPATH = PREFIX + "classpath";
     public static final String INCLUDED_FILES = PREFIX + "includedFiles";
+    public static final String INCLUDED_FILES_FILE = PREFIX + "includedFilesFile";
+    public static final String THREADS = PREFIX + "threads";
+    public static final String SYNTHESIZE_LAMBDAS = PREFIX + "synthesizeLambdas";
+    public static final String CACHE_DIR = PREFIX + "cacheDir";
+    public static final String INDEX_FILE = PREFIX + "indexFile";
+    public static final String DAEMON = PREFIX + "daemon";
 
     private static final List<String> requiredProperties = new ArrayList<>();
     private static final List<String> requiredPropertiesHelp = new ArrayList<>();
@@ -102,7 +109,8 @@ public class Config {
 
     static {
         requiredParameterHelp(INPUT_DIR,
-                "Input directory from where the original class files are read.");
+                "Input directory from where the original class files are read.",
+                "May also be a JAR or ZIP file.");
     }
 
     public Path getInputDir() {
@@ -115,6 +123,9 @@ public class Config {
     static {
         optionalParameterHelp(OUTPUT_DIR,
                 "Output directory into where the generated class files are written.",
+                "If the path ends with .jar or .zip, or is an existing file, a JAR file",
+                "is written instead, together with the non-class files of an input JAR",
+                "file.",
                 "Defaults to same as " + INPUT_DIR);
     }
 
@@ -156,15 +167,115 @@ public class Config {
 
     public List<Path> getIncludedFiles() {
         String files = p.getProperty(INCLUDED_FILES);
-        if (files == null) {
+        String filesFile = p.getProperty(INCLUDED_FILES_FILE);
+        if (files == null && filesFile == null) {
             return null;
         }
-        return Arrays.asList(files.split(File.pathSeparator)).stream()
+        List<String> paths = new ArrayList<>();
+        if (files != null) {
+            paths.addAll(Arrays.asList(files.split(File.pathSeparator)));
+        }
+        if (filesFile != null) {
+            try {
+                paths.addAll(Files.readAllLines(Paths.get(filesFile)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return paths.stream()
                 .filter(s -> !s.isEmpty())
                 .map(Paths::get)
                 .collect(Collectors.toList());
     }
 
+    static {
+        optionalParameterHelp(INCLUDED_FILES_FILE,
+                "File containing the list of files to process, one per line.",
+                "Can be used instead of, or together with, " + INCLUDED_FILES + ",",
+                "when the list is too long for the command line.");
+    }
+
+    // threads
+
+    static {
+        optionalParameterHelp(THREADS,
+                "Number of threads to use for analyzing and backporting the classes in parallel.",
+                "Default value is 1 (i.e. no parallelism)");
+    }
+
+    public int getThreads() {
+        return Integer.parseInt(p.getProperty(THREADS, "1"));
+    }
+
+    // lambda synthesis
+
+    static {
+        optionalParameterHelp(SYNTHESIZE_LAMBDAS,
+                "Whether to generate the lambda classes directly from the bytecode,",
+                "instead of capturing the classes generated by Java's lambda metafactory.",
+                "This avoids loading the classes being backported and does not need",
+                "the Java agent.",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    public boolean isLambdaSynthesisEnabled() {
+        return Boolean.parseBoolean(p.getProperty(SYNTHESIZE_LAMBDAS, "false"));
+    }
+
+    // cache dir
+
+    static {
+        optionalParameterHelp(CACHE_DIR,
+                "Directory for caching the backported classes between builds.",
+                "Classes whose bytecode and relevant class hierarchy have not changed",
+                "are copied from the cache instead of backporting them again.",
+                "Entries which have not been used for " + TransformationCache.MAX_UNUSED_DAYS + " days are removed.",
+                "Disabled by default (i.e. no caching)");
+    }
+
+    public Path getCacheDir() {
+        String cacheDir = p.getProperty(CACHE_DIR);
+        if (cacheDir == null) {
+            return null;
+        }
+        return Paths.get(cacheDir);
+    }
+
+    // index file
+
+    static {
+        optionalParameterHelp(INDEX_FILE,
+                "File for saving the class hierarchy information between builds.",
+                "When only some files are processed (see " + INCLUDED_FILES + "),",
+                "the information about the other classes is read from this file,",
+                "so that default methods can be backported incrementally.",
+                "Disabled by default");
+    }
+
+    public Path getIndexFile() {
+        String indexFile = p.getProperty(INDEX_FILE);
+        if (indexFile == null) {
+            return null;
+        }
+        return Paths.get(indexFile);
+    }
+
+    // daemon
+
+    static {
+        optionalParameterHelp(DAEMON,
+                "Whether to start a daemon which stays running in the background and",
+                "processes the requests of build tools, so that they don't need to",
+                "start and warm up a new JVM for every build. The daemon stops after",
+                "being idle for 3 hours. Its port and access token are written to",
+                "~/.retrolambda/daemon-<version>-<jar hash>.properties",
+                "Disabled by default. Enable by setting to \"true\"");
+    }
+
+    public boolean isDaemonEnabled() {
+        return Boolean.parseBoolean(p.getProperty(DAEMON, "false"));
+    }
+
     // help
 
     public String getHelp() {
@@ -0,0 +1,362 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps Retrolambda running between builds, so that the build tools don't need to
+ * start and warm up a new JVM every time. Listens on a loopback port, whose number
+ * and access token are written to the daemon info file.
+ * <p>
+ * A request consists of the access token on the first line, followed by the
+ * {@link Config} properties in the format of {@link Properties#store(Writer, String)}.
+ * The paths in them must be absolute. The response consists of the output lines,
+ * each prefixed with {@value #OUTPUT_PREFIX}, and finally the exit code prefixed
+ * with {@value #EXIT_PREFIX}.
+ * <p>
+ * The daemon is identified by its version and the hash of its JAR file, so that a
+ * changed Retrolambda JAR file, e.g. a rebuilt snapshot, will get a daemon of its own.
+ * <p>
+ * The requests are processed concurrently. {@link System#out} is global, so it's
+ * replaced with a stream which sends the output to the request which the current
+ * thread, or the thread which started it, is processing.
+ */
+public class Daemon {
+
+    public static final String OUTPUT_PREFIX = "out ";
+    public static final String EXIT_PREFIX = "exit ";
+
+    private static final int IDLE_TIMEOUT = (int) TimeUnit.HOURS.toMillis(3);
+    private static final int REQUEST_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_LIBRARY_CLASS_LOADERS = 8;
+
+    private final Path infoFile;
+    private final int idleTimeout;
+    private final String token = newToken();
+    private final InheritableThreadLocal<OutputStream> requestOutput = new InheritableThreadLocal<>();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile ServerSocket server;
+
+    // The JAR files on the classpath are usually libraries which don't change between
+    // builds, so their class loaders are reused for as long as the JAR files stay the same.
+    private final Map<List<String>, NonDelegatingClassLoader> libraryClassLoaders =
+            new LinkedHashMap<List<String>, NonDelegatingClassLoader>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, NonDelegatingClassLoader> eldest) {
+                    if (size() > MAX_LIBRARY_CLASS_LOADERS) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    public Daemon(Path infoFile) {
+        this(infoFile, IDLE_TIMEOUT);
+    }
+
+    Daemon(Path infoFile, int idleTimeout) {
+        this.infoFile = infoFile;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public static Path getInfoFile(String version) throws IOException {
+        return Paths.get(System.getProperty("user.home"), ".retrolambda", "daemon-" + getDaemonId(version) + ".properties");
+    }
+
+    /**
+     * Must match the ID which the Maven plugin computes from the same JAR file.
+     */
+    private static String getDaemonId(String version) throws IOException {
+        Path jar;
+        try {
+            jar = Paths.get(Daemon.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        if (!Files.isRegularFile(jar)) {
+            return version;
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(jar));
+            return version + "-" + toHex(hash).substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void run() throws IOException {
+        PrintStream stdout = System.out;
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            this.server = server;
+            server.setSoTimeout(idleTimeout);
+            System.setOut(new PrintStream(new RequestOutputStream(stdout), true, "UTF-8"));
+            writeInfoFile(server);
+            System.out.println("Daemon listening on port " + server.getLocalPort());
+            try {
+                while (true) {
+                    Socket socket;
+                    try {
+                        socket = server.accept();
+                    } catch (SocketTimeoutException e) {
+                        if (activeRequests.get() > 0) {
+                            continue;
+                        }
+                        System.out.println("Daemon stopping after being idle");
+                        return;
+                    } catch (SocketException e) {
+                        if (server.isClosed()) {
+                            System.out.println("Daemon stopped");
+                            return;
+                        }
+                        throw e;
+                    }
+                    activeRequests.incrementAndGet();
+                    executor.execute(() -> {
+                        try (Socket s = socket) {
+                            handle(s);
+                        } catch (IOException e) {
+                            System.out.println("WARNING: Failed to process a request: " + e);
+                        } finally {
+                            activeRequests.decrementAndGet();
+                        }
+                    });
+                }
+            } finally {
+                deleteInfoFile();
+                executor.shutdown();
+                awaitTermination(executor);
+                System.setOut(stdout);
+                synchronized (libraryClassLoaders) {
+                    libraryClassLoaders.values().forEach(Daemon::closeQuietly);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting requests. The requests being processed will be finished.
+     */
+    public void stop() throws IOException {
+        ServerSocket server = this.server;
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        socket.setSoTimeout(REQUEST_TIMEOUT);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String requestToken = in.readLine();
+        if (requestToken == null || !MessageDigest.isEqual(
+                requestToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+            System.out.println("WARNING: Rejected a request with a wrong access token");
+            return;
+        }
+        Properties p = new Properties();
+        p.load(in);
+        socket.setSoTimeout(0);
+
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        ResponseStream response = new ResponseStream(out);
+        requestOutput.set(response);
+        int exitCode;
+        try {
+            exitCode = process(new Config(p));
+        } finally {
+            requestOutput.remove();
+        }
+        synchronized (response) {
+            out.write((EXIT_PREFIX + exitCode + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    private int process(Config config) {
+        try {
+            if (!config.isFullyConfigured()) {
+                System.out.print(config.getHelp());
+                return 1;
+            }
+            runWithLibraries(config);
+            return 0;
+        } catch (Throwable t) {
+            System.out.println("Error! Failed to transform some classes");
+            t.printStackTrace(System.out);
+            return 1;
+        } finally {
+            System.out.flush();
+        }
+    }
+
+    private void runWithLibraries(Config config) throws Throwable {
+        List<Path> directories = new ArrayList<>();
+        List<Path> jars = new ArrayList<>();
+        List<String> jarsKey = new ArrayList<>();
+        for (Path path : Retrolambda.asPaths(config.getClasspath())) {
+            if (Files.isRegularFile(path)) {
+                jars.add(path);
+                jarsKey.add(path + ":" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis());
+            } else {
+                directories.add(path);
+            }
+        }
+        // the classes being backported are in the directories, so they are loaded by a new class loader
+        NonDelegatingClassLoader libraries;
+        synchronized (libraryClassLoaders) {
+            libraries = libraryClassLoaders.get(jarsKey);
+            if (libraries == null) {
+                libraries = new NonDelegatingClassLoader(jars);
+                libraryClassLoaders.put(jarsKey, libraries);
+            }
+        }
+        Retrolambda.run(config, directories, libraries);
+    }
+
+    private void writeInfoFile(ServerSocket server) throws IOException {
+        Properties info = new Properties();
+        info.setProperty("host", server.getInetAddress().getHostAddress());
+        info.setProperty("port", String.valueOf(server.getLocalPort()));
+        info.setProperty("token", token);
+
+        // the temporary file is readable only by the current user, which keeps the token secret
+        Files.createDirectories(infoFile.getParent());
+        Path tmp = Files.createTempFile(infoFile.getParent(), "daemon", ".tmp");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            info.store(out, "Retrolambda daemon");
+        }
+        Files.move(tmp, infoFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteInfoFile() {
+        // another daemon may have replaced the file after this one was started
+        Properties info = new Properties();
+        try (Reader in = Files.newBufferedReader(infoFile, StandardCharsets.UTF_8)) {
+            info.load(in);
+            if (token.equals(info.getProperty("token"))) {
+                Files.delete(infoFile);
+            }
+        } catch (IOException e) {
+            // already deleted
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return toHex(bytes);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+
+    /**
+     * Writes to the output of the request which the current thread is processing,
+     * or if none, to the daemon's own output.
+     */
+    private class RequestOutputStream extends OutputStream {
+
+        private final OutputStream defaultOutput;
+
+        public RequestOutputStream(OutputStream defaultOutput) {
+            this.defaultOutput = defaultOutput;
+        }
+
+        private OutputStream target() {
+            OutputStream out = requestOutput.get();
+            return out != null ? out : defaultOutput;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+
+    /**
+     * Sends the output to the client one line at a time, prefixed with {@link #OUTPUT_PREFIX}.
+     * The lambda classes may be saved, and thus printed, from many threads.
+     */
+    private static class ResponseStream extends OutputStream {
+
+        private final OutputStream out;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        public ResponseStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (b == '\n') {
+                out.write(OUTPUT_PREFIX.getBytes(StandardCharsets.UTF_8));
+                line.writeTo(out);
+                out.write('\n');
+                line.reset();
+            } else if (b != '\r') {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import net.orfjackal.retrolambda.interfaces.ClassHierarchyAnalyzer;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Defines the classes being backported from the bytecode which was already read
+ * for analyzing them, instead of finding them again on the classpath. The classpath
+ * is used only for the other classes.
+ */
+public class InputClassLoader extends NonDelegatingClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final ClassHierarchyAnalyzer analyzer;
+
+    public InputClassLoader(List<Path> classpath, ClassLoader parent, ClassHierarchyAnalyzer analyzer) throws IOException {
+        super(classpath, parent);
+        this.analyzer = analyzer;
+    }
+
+    @Override
+    protected byte[] findBytecode(String className) throws IOException {
+        byte[] bytecode = analyzer.getBytecode(Type.getObjectType(className.replace('.', '/')));
+        if (bytecode == null) {
+            bytecode = super.findBytecode(className);
+        }
+        return bytecode;
+    }
+}
@@ -24,4 +24,20 @@ public class LowerBytecodeVersion extends ClassVisitor {
         }
         super.visit(version, access, name, signature, superName, interfaces);
     }
+
+    /**
+     * Does the same as this visitor, but by modifying a copy of the bytecode directly.
+     */
+    public static byte[] lowerBytecodeVersion(byte[] bytecode, int targetVersion) {
+        byte[] result = bytecode.clone();
+        // minor_version and major_version, in the same format as ASM's version numbers
+        int version = ((result[4] & 0xFF) << 24) | ((result[5] & 0xFF) << 16) | ((result[6] & 0xFF) << 8) | (result[7] & 0xFF);
+        if (version > targetVersion) {
+            result[4] = (byte) (targetVersion >>> 24);
+            result[5] = (byte) (targetVersion >>> 16);
+            result[6] = (byte) (targetVersion >>> 8);
+            result[7] = (byte) targetVersion;
+        }
+        return result;
+    }
 }
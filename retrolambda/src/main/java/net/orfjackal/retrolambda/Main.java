@@ -18,6 +18,16 @@ public class Main {
         }
 
         Config config = new Config(System.getProperties());
+        if (config.isDaemonEnabled()) {
+            try {
+                new Daemon(Daemon.getInfoFile(getVersion())).run();
+            } catch (Throwable t) {
+                System.out.println("Error! The daemon failed");
+                t.printStackTrace(System.out);
+                System.exit(1);
+            }
+            return;
+        }
         if (!config.isFullyConfigured()) {
             System.out.print(config.getHelp());
             return;
@@ -1,30 +1,120 @@
-// Copyright © 2013-2014 Esko Luontola <www.orfjackal.net>
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
 package net.orfjackal.retrolambda;
 
-import java.net.*;
+import net.orfjackal.retrolambda.files.ClasspathIndex;
 
-public class NonDelegatingClassLoader extends URLClassLoader {
+import java.io.*;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.*;
 
-    public NonDelegatingClassLoader(URL[] urls) {
-        super(urls);
+/**
+ * Loads the classes from its own classpath before asking the parent class loader.
+ * The classpath is indexed by package, and the JAR files on it are memory-mapped.
+ */
+public class NonDelegatingClassLoader extends ClassLoader implements Closeable {
+
+    static {
+        // the classes are loaded concurrently when backporting in parallel
+        registerAsParallelCapable();
+    }
+
+    private final ClasspathIndex classpath;
+
+    public NonDelegatingClassLoader(List<Path> classpath) throws IOException {
+        this(classpath, getSystemClassLoader());
+    }
+
+    public NonDelegatingClassLoader(List<Path> classpath, ClassLoader parent) throws IOException {
+        super(parent);
+        this.classpath = new ClasspathIndex(classpath);
     }
 
     @Override
-    public Class<?> loadClass(String name) throws ClassNotFoundException {
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
         if (name.startsWith("java.")) { // the java.* classes can only be loaded by the bootstrap class loader
-            return super.loadClass(name);
+            return super.loadClass(name, resolve);
         }
-        Class<?> c = findLoadedClass(name);
-        if (c != null) {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                c = defineOwnClass(name);
+            }
+            if (c == null) {
+                c = getParent().loadClass(name);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
             return c;
         }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        Class<?> c = defineOwnClass(name);
+        if (c == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return c;
+    }
+
+    private Class<?> defineOwnClass(String name) throws ClassNotFoundException {
+        byte[] bytecode;
+        try {
+            bytecode = findBytecode(name);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        if (bytecode == null) {
+            return null;
+        }
+        definePackageOf(name);
+        return defineClass(name, bytecode, 0, bytecode.length);
+    }
+
+    /**
+     * Returns the bytecode of the class, or null if it is not on this class loader's classpath.
+     */
+    protected byte[] findBytecode(String className) throws IOException {
+        return classpath.read(className.replace('.', '/') + ".class");
+    }
+
+    private void definePackageOf(String className) {
+        int i = className.lastIndexOf('.');
+        if (i < 0) {
+            return;
+        }
+        String packageName = className.substring(0, i);
+        if (getPackage(packageName) == null) {
+            try {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            } catch (IllegalArgumentException e) {
+                // defined concurrently by another thread
+            }
+        }
+    }
+
+    @Override
+    protected URL findResource(String name) {
         try {
-            return findClass(name);
-        } catch (ClassNotFoundException e) {
-            return super.loadClass(name);
+            return classpath.getUrl(name);
+        } catch (IOException e) {
+            return null;
         }
     }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) throws IOException {
+        // e.g. ServiceLoader looks for the META-INF/services files on the whole classpath
+        return Collections.enumeration(classpath.getUrls(name));
+    }
+
+    @Override
+    public void close() throws IOException {
+        classpath.close();
+    }
 }
@@ -21,8 +21,4 @@ public class PreMain {
     public static boolean isAgentLoaded() {
         return agentLoaded;
     }
-
-    public static void setLambdaClassSaver(LambdaClassSaver lambdaClassSaver) {
-        agent.setLambdaClassSaver(lambdaClassSaver);
-    }
 }
@@ -8,15 +8,29 @@ package net.orfjackal.retrolambda;
 import net.orfjackal.retrolambda.files.*;
 import net.orfjackal.retrolambda.interfaces.*;
 import net.orfjackal.retrolambda.lambdas.*;
+import org.objectweb.asm.*;
 
-import java.io.IOException;
-import java.net.*;
+import java.io.*;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 public class Retrolambda {
 
+    private static final int OUTPUT_THREADS = 4;
+
     public static void run(Config config) throws Throwable {
+        run(config, asPaths(config.getClasspath()), ClassLoader.getSystemClassLoader());
+    }
+
+    /**
+     * @param classpathFiles for loading the classes which are needed for capturing the lambda classes,
+     *                       except the classes being backported, which are loaded from their analyzed bytecode
+     * @param parent         for loading the classes which are not on the classpath
+     */
+    static void run(Config config, List<Path> classpathFiles, ClassLoader parent) throws Throwable {
         int bytecodeVersion = config.getBytecodeVersion();
         boolean defaultMethodsEnabled = config.isDefaultMethodsEnabled();
         boolean natjSupportEnabled = config.isNatJSupportEnabled();
@@ -24,6 +38,10 @@ public class Retrolambda {
         Path outputDir = config.getOutputDir();
         String classpath = config.getClasspath();
         List<Path> includedFiles = config.getIncludedFiles();
+        int threads = config.getThreads();
+        boolean lambdaSynthesisEnabled = config.isLambdaSynthesisEnabled();
+        Path cacheDir = config.getCacheDir();
+        Path indexFile = config.getIndexFile();
         System.out.println("Bytecode version: " + bytecodeVersion + " (" + config.getJavaVersion() + ")");
         System.out.println("Default methods:  " + defaultMethodsEnabled);
         System.out.println("NatJ support:     " + natjSupportEnabled);
@@ -33,77 +51,350 @@ public class Retrolambda {
         if (includedFiles != null) {
             System.out.println("Included files:   " + includedFiles.size());
         }
+        if (threads > 1) {
+            System.out.println("Threads:          " + threads);
+        }
+        if (lambdaSynthesisEnabled) {
+            System.out.println("Lambda synthesis: " + lambdaSynthesisEnabled);
+        }
+        if (cacheDir != null) {
+            System.out.println("Cache directory:  " + cacheDir);
+        }
+        if (indexFile != null) {
+            System.out.println("Index file:       " + indexFile);
+        }
 
-        if (!Files.isDirectory(inputDir)) {
-            System.out.println("Nothing to do; not a directory: " + inputDir);
+        boolean inputJar = Files.isRegularFile(inputDir);
+        if (!inputJar && !Files.isDirectory(inputDir)) {
+            System.out.println("Nothing to do; not a directory or a JAR file: " + inputDir);
             return;
         }
+        boolean outputJar = isJarFile(outputDir);
+        if (inputJar && includedFiles != null) {
+            System.out.println("WARNING: Included files are ignored when the input is a JAR file");
+            includedFiles = null;
+        }
 
-        Thread.currentThread().setContextClassLoader(new NonDelegatingClassLoader(asUrls(classpath)));
-
-        ClassHierarchyAnalyzer analyzer = new ClassHierarchyAnalyzer();
-        ClassSaver saver = new ClassSaver(outputDir);
-        Transformers transformers = new Transformers(bytecodeVersion, defaultMethodsEnabled, natjSupportEnabled, analyzer);
-        LambdaClassSaver lambdaClassSaver = new LambdaClassSaver(saver, transformers);
+        // When the output is written to a different directory, the input files
+        // will stay intact, so each class can be re-read from its input file and
+        // written as soon as it has been backported, instead of keeping all of
+        // them in memory. An output JAR file is replaced only after it's complete.
+        boolean streaming = outputJar || !isSameDirectory(inputDir, outputDir);
 
-        try (LambdaClassDumper dumper = new LambdaClassDumper(lambdaClassSaver)) {
-            if (PreMain.isAgentLoaded()) {
-                PreMain.setLambdaClassSaver(lambdaClassSaver);
+        TransformationCache cache = null;
+        if (cacheDir != null) {
+            if (natjSupportEnabled) {
+                // the NatJ support looks at the classes on the classpath, and the cache would not notice their changes
+                System.out.println("WARNING: The cache is not used together with NatJ support");
             } else {
-                dumper.install();
+                cache = new TransformationCache(cacheDir, describeConfig(config));
             }
+        }
+
+        // the classes of an input JAR file can't be re-read from a file of their own
+        ClassHierarchyAnalyzer analyzer = new ClassHierarchyAnalyzer(!streaming || inputJar);
+        Transformers transformers = new Transformers(bytecodeVersion, defaultMethodsEnabled, natjSupportEnabled, analyzer);
+        InputClassLoader classLoader = new InputClassLoader(classpathFiles, parent, analyzer);
 
-            visitFiles(inputDir, includedFiles, new BytecodeFileVisitor() {
-                @Override
-                protected void visit(byte[] bytecode) {
-                    analyzer.analyze(bytecode);
+        Thread thread = Thread.currentThread();
+        ClassLoader originalClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+
+        // the files are written in background threads, and finishing the saver waits for them
+        try (ClassSaver saver = outputJar ? new JarClassSaver(outputDir) : new AsyncClassSaver(outputDir, OUTPUT_THREADS)) {
+            LambdaClassSaver lambdaClassSaver = new LambdaClassSaver(cache == null ? saver : new RecordingClassSaver(saver, cache), transformers);
+            transformers.setLambdaClassSaver(lambdaClassSaver, lambdaSynthesisEnabled);
+            // The hooks for capturing the lambda classes are global, but they give each
+            // captured class to the run which is waiting for it, so many runs may use them
+            // at the same time, e.g. when Maven builds many modules in parallel.
+            try (LambdaClassDumper dumper = new LambdaClassDumper()) {
+                if (!lambdaSynthesisEnabled && !PreMain.isAgentLoaded()) {
+                    dumper.install();
+                }
+
+                // When processing only some of the files, the information about
+                // the other classes must come from the previous builds.
+                ClassHierarchyIndex index = null;
+                Map<Type, ClassInfo> indexed = new LinkedHashMap<>();
+                Map<Type, Map<MethodRef, MethodRef>> indexedRelocatedMethods = new HashMap<>();
+                if (indexFile != null && includedFiles != null && Files.exists(indexFile)) {
+                    try {
+                        index = ClassHierarchyIndex.load(indexFile, inputDir, analyzer);
+                        for (ClassInfo c : index.getClasses()) {
+                            indexed.put(c.type, c);
+                            indexedRelocatedMethods.put(c.type, analyzer.getRelocatedMethods(c.type));
+                        }
+                    } catch (IOException e) {
+                        System.out.println("WARNING: Failed to read the index file " + indexFile + ": " + e);
+                    }
+                }
+
+                // the files are read and analyzed in parallel, but they are listed in a deterministic order
+                List<ClassInfo> inputs = new ArrayList<>();
+                List<Callable<ClassInfo>> analyses = new ArrayList<>();
+                if (inputJar) {
+                    try (JarReader jar = new JarReader(inputDir)) {
+                        for (JarReader.Entry entry : jar.getEntries()) {
+                            if (entry.isClassFile()) {
+                                analyses.add(() -> analyzer.analyze(jar.read(entry)));
+                            } else {
+                                // before the classes, so that the manifest will stay as the first entry
+                                saver.copyResource(jar, entry);
+                            }
+                        }
+                        inputs.addAll(analyzeAll(analyses, threads));
+                    }
+                } else {
+                    visitFiles(inputDir, includedFiles, new BytecodeFileVisitor() {
+                        @Override
+                        protected void visit(Path inputFile) {
+                            analyses.add(() -> analyzer.analyze(Files.readAllBytes(inputFile), inputFile));
+                        }
+                    }, threads);
+                    inputs.addAll(analyzeAll(analyses, threads));
+                }
+
+                // only the default methods make a class's output depend on the other classes
+                if (index != null && defaultMethodsEnabled) {
+                    Set<Type> changed = new LinkedHashSet<>(index.getRemovedClasses());
+                    for (ClassInfo c : inputs) {
+                        if (ClassDependencies.hasChanged(
+                                indexed.get(c.type), indexedRelocatedMethods.getOrDefault(c.type, Collections.emptyMap()),
+                                c, analyzer.getRelocatedMethods(c.type))) {
+                            changed.add(c.type);
+                        }
+                        indexed.put(c.type, c);
+                    }
+                    Set<Type> dependents = new ClassDependencies(indexed.values()).getDependents(changed);
+                    for (ClassInfo c : inputs) {
+                        dependents.remove(c.type);
+                    }
+                    if (!dependents.isEmpty()) {
+                        if (streaming) {
+                            System.out.println("Classes affected by the changes: " + dependents.size());
+                            for (Type type : dependents) {
+                                Path inputFile = inputDir.resolve(type.getInternalName() + ".class");
+                                inputs.add(analyzer.analyze(Files.readAllBytes(inputFile), inputFile));
+                            }
+                        } else {
+                            // The input files have already been backported, so they can't be backported again.
+                            // Nothing has been written yet, so failing here won't leave stale output behind.
+                            throw new IllegalStateException(dependents.size() + " classes depend on the changed classes, " +
+                                    "but they can't be backported again when the output directory is the same as " +
+                                    "the input directory. A full build is needed.");
+                        }
+                    }
+                }
+
+                // Because Transformers.backportLambdaClass() analyzes the lambda class,
+                // adding it to the analyzer's list of classes, and because the analyzer
+                // may contain classes from the index file, we must take care to backport
+                // only the classes which were read from the input files, or else we might
+                // accidentally overwrite the lambda class.
+                List<ClassInfo> all = new ArrayList<>();
+                inputs.stream().filter(ClassInfo::isInterface).forEach(all::add);
+                inputs.stream().filter(ClassInfo::isClass).forEach(all::add);
+
+                ClassBackporter backporter = c -> backport(c, transformers);
+                if (cache != null) {
+                    cache.setHierarchy(analyzer);
+                    backporter = cached(backporter, cache, analyzer);
+                }
+
+                Map<String, byte[]> transformed = new LinkedHashMap<>();
+                ClassOutput output = streaming ? saver::save : transformed::put;
+                if (threads > 1) {
+                    // the entries of a JAR file must be written in the input order, to not depend on the timing
+                    backportInParallel(all, backporter, threads, output, streaming && !outputJar);
+                } else {
+                    for (ClassInfo c : all) {
+                        saveAll(output, backporter.backport(c));
+                    }
+                }
+
+                // We need to load some of the classes (for calling the lambda metafactory)
+                // so we need to take care not to modify any bytecode before loading them.
+                saveAll(saver::save, transformed);
+                saver.finish();
+
+                if (indexFile != null) {
+                    for (ClassInfo c : inputs) {
+                        indexed.put(c.type, c);
+                    }
+                    ClassHierarchyIndex.save(indexFile, indexed.values(), analyzer.getRelocatedMethods());
                 }
-            });
-
-            // Because Transformers.backportLambdaClass() analyzes the lambda class,
-            // adding it to the analyzer's list of classes, we must take care to
-            // use the list of classes before that happened, or else we might accidentally
-            // overwrite the lambda class.
-            List<ClassInfo> interfaces = analyzer.getInterfaces();
-            List<ClassInfo> classes = analyzer.getClasses();
-
-            List<byte[]> transformed = new ArrayList<>();
-            for (ClassInfo c : interfaces) {
-                transformed.add(transformers.extractInterfaceCompanion(c.reader));
-                transformed.add(transformers.backportInterface(c.reader));
             }
+        } finally {
+            thread.setContextClassLoader(originalClassLoader);
+            classLoader.close();
+        }
+        if (cache != null) {
+            System.out.println("Classes found in cache: " + cache.getHits() + " of " + (cache.getHits() + cache.getMisses()));
+            try {
+                cache.removeUnusedEntries();
+            } catch (IOException e) {
+                System.out.println("WARNING: Failed to remove the unused entries from the cache: " + e);
+            }
+        }
+    }
+
+    private static Map<String, byte[]> backport(ClassInfo c, Transformers transformers) throws IOException {
+        ClassReader reader = c.getReader();
+        Map<String, byte[]> transformed = new LinkedHashMap<>();
+        if (c.isInterface()) {
+            byte[] companion = transformers.extractInterfaceCompanion(reader);
+            if (companion != null) {
+                transformed.put(c.getCompanionClass().get().getInternalName(), companion);
+            }
+            transformed.put(c.type.getInternalName(), transformers.backportInterface(reader));
+        } else {
+            transformed.put(c.type.getInternalName(), transformers.backportClass(reader));
+        }
+        return transformed;
+    }
+
+    private static void saveAll(ClassOutput output, Map<String, byte[]> classes) throws IOException {
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            output.save(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static ClassBackporter cached(ClassBackporter backporter, TransformationCache cache, ClassHierarchyAnalyzer analyzer) {
+        return c -> {
+            String key = cache.getKey(c, c.getBytecode(), analyzer);
+            Map<String, byte[]> transformed = cache.get(key);
+            if (transformed == null) {
+                transformed = backporter.backport(c);
+                cache.put(key, c.type.getInternalName(), transformed);
+            }
+            return transformed;
+        };
+    }
+
+    private static String describeConfig(Config config) {
+        // everything which may affect the backported bytecode
+        return "bytecodeVersion=" + config.getBytecodeVersion() +
+                ", defaultMethods=" + config.isDefaultMethodsEnabled() +
+                ", synthesizeLambdas=" + config.isLambdaSynthesisEnabled() +
+                ", java=" + System.getProperty("java.version") +
+                ", retrolambda=" + Retrolambda.class.getPackage().getImplementationVersion();
+    }
+
+    private static List<ClassInfo> analyzeAll(List<Callable<ClassInfo>> analyses, int threads) throws Throwable {
+        List<ClassInfo> results = new ArrayList<>();
+        if (threads <= 1) {
+            for (Callable<ClassInfo> analysis : analyses) {
+                results.add(analysis.call());
+            }
+            return results;
+        }
+        // unlike backporting, the analysis doesn't load any classes, so it doesn't need the context class loader
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Future<ClassInfo> result : pool.invokeAll(analyses)) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void backportInParallel(List<ClassInfo> classes, ClassBackporter backporter, int threads,
+                                           ClassOutput output, boolean saveInWorkers) throws Throwable {
+        // The worker threads need the same context class loader as we do, for loading the lambda invokers
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        ForkJoinPool pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setContextClassLoader(classLoader);
+            return t;
+        }, null, false);
+        ClassOutput workerOutput = saveInWorkers ? output : null;
+        try {
+            List<Future<Map<String, byte[]>>> results = new ArrayList<>();
             for (ClassInfo c : classes) {
-                transformed.add(transformers.backportClass(c.reader));
+                results.add(pool.submit(() -> saveInWorker(workerOutput, backporter.backport(c))));
             }
 
-            // We need to load some of the classes (for calling the lambda metafactory)
-            // so we need to take care not to modify any bytecode before loading them.
-            for (byte[] bytecode : transformed) {
-                saver.save(bytecode);
+            // keep the results in the same order as when backporting sequentially
+            for (Future<Map<String, byte[]>> result : results) {
+                saveAll(output, result.get());
             }
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Map<String, byte[]> saveInWorker(ClassOutput workerOutput, Map<String, byte[]> transformed) throws IOException {
+        if (workerOutput == null) {
+            return transformed;
         }
+        saveAll(workerOutput, transformed);
+        return Collections.emptyMap();
+    }
+
+    private static boolean isJarFile(Path path) {
+        if (Files.isDirectory(path)) {
+            return false;
+        }
+        String name = path.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        return Files.isRegularFile(path) || name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    private static boolean isSameDirectory(Path dir1, Path dir2) throws IOException {
+        if (Files.exists(dir1) && Files.exists(dir2)) {
+            return Files.isSameFile(dir1, dir2);
+        }
+        return dir1.toAbsolutePath().normalize().equals(dir2.toAbsolutePath().normalize());
     }
 
     static void visitFiles(Path inputDir, List<Path> includedFiles, FileVisitor<Path> visitor) throws IOException {
+        visitFiles(inputDir, includedFiles, visitor, 1);
+    }
+
+    /**
+     * When only some files are included, visits them directly instead of walking the
+     * whole directory tree, so only {@link FileVisitor#visitFile} is called.
+     */
+    static void visitFiles(Path inputDir, List<Path> includedFiles, FileVisitor<Path> visitor, int threads) throws IOException {
         if (includedFiles != null) {
-            visitor = new FilteringFileVisitor(includedFiles, visitor);
+            for (Path file : new LinkedHashSet<>(includedFiles)) {
+                if (!file.startsWith(inputDir) || file.equals(inputDir)) {
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (!attrs.isDirectory() && visitor.visitFile(file, attrs) == FileVisitResult.TERMINATE) {
+                    return;
+                }
+            }
+        } else if (threads > 1) {
+            ParallelFileWalker.walkFileTree(inputDir, visitor, threads);
+        } else {
+            Files.walkFileTree(inputDir, visitor);
         }
-        Files.walkFileTree(inputDir, visitor);
     }
 
-    private static URL[] asUrls(String classpath) {
-        String[] paths = classpath.split(System.getProperty("path.separator"));
-        return Arrays.asList(paths).stream()
-                .map(s -> Paths.get(s).toUri())
-                .map(Retrolambda::uriToUrl)
-                .toArray(URL[]::new);
+    static List<Path> asPaths(String classpath) {
+        return Arrays.asList(classpath.split(File.pathSeparator)).stream()
+                .map(Paths::get)
+                .collect(Collectors.toList());
     }
 
-    private static URL uriToUrl(URI uri) {
-        try {
-            return uri.toURL();
-        } catch (MalformedURLException e) {
-            throw new RuntimeException(e);
-        }
+
+    private interface ClassBackporter {
+        Map<String, byte[]> backport(ClassInfo c) throws IOException;
+    }
+
+    private interface ClassOutput {
+        void save(String className, byte[] bytecode) throws IOException;
     }
 }
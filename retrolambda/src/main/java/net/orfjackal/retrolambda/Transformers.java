@@ -8,6 +8,7 @@ package net.orfjackal.retrolambda;
 import net.orfjackal.retrolambda.interfaces.*;
 import net.orfjackal.retrolambda.lambdas.*;
 import net.orfjackal.retrolambda.trywithresources.SwallowSuppressedExceptions;
+import net.orfjackal.retrolambda.util.ConstantPoolScanner;
 
 import org.objectweb.asm.*;
 
@@ -16,12 +17,16 @@ import org.moe.retrolambda.natj.AddMissingNatJRegister;
 
 import java.util.Optional;
 
+import static net.orfjackal.retrolambda.util.ConstantPoolScanner.hasFeature;
+
 public class Transformers {
 
     private final int targetVersion;
     private final boolean defaultMethodsEnabled;
     private boolean natjSupportEnabled;
     private final ClassHierarchyAnalyzer analyzer;
+    private LambdaClassSaver lambdaClassSaver;
+    private boolean lambdaSynthesisEnabled;
 
     public Transformers(int targetVersion, boolean defaultMethodsEnabled, boolean natjSupportEnabled, ClassHierarchyAnalyzer analyzer) {
         this.targetVersion = targetVersion;
@@ -30,8 +35,22 @@ public class Transformers {
         this.analyzer = analyzer;
     }
 
-    public byte[] backportLambdaClass(ClassReader reader) {
-        return transform(reader, (next) -> {
+    /**
+     * Sets the saver for the lambda classes. If lambda synthesis is enabled, the lambda
+     * classes are synthesized from the bootstrap method arguments, instead of calling
+     * the lambda metafactory.
+     */
+    public void setLambdaClassSaver(LambdaClassSaver lambdaClassSaver, boolean lambdaSynthesisEnabled) {
+        this.lambdaClassSaver = lambdaClassSaver;
+        this.lambdaSynthesisEnabled = lambdaSynthesisEnabled;
+    }
+
+    public byte[] backportLambdaClass(ClassReader reader, LambdaReificationContext context) {
+        // Lambda classes are few and small, so instead of depending on whether
+        // the JDK's metafactory or LambdaClassSynthesizer generated them, always
+        // look for the calls to the relocated static methods of an interface
+        int features = ConstantPoolScanner.scan(reader) | ConstantPoolScanner.INTERFACE_METHOD_CALLS;
+        return transform(reader, features, (next) -> {
             if (defaultMethodsEnabled) {
                 // Lambda classes are generated dynamically, so they were not
                 // part of the original analytics and must be analyzed now,
@@ -42,21 +61,30 @@ public class Transformers {
             } else {
                 next = new UpdateRelocatedMethodInvocations(next, analyzer); // needed for lambdas in an interface's constant initializer
             }
-            next = new BackportLambdaClass(next);
+            next = new BackportLambdaClass(next, context);
             return next;
         });
     }
 
     public byte[] backportClass(ClassReader reader) {
-        return transform(reader, (next) -> {
+        int features = ConstantPoolScanner.scan(reader);
+        boolean inheritsDefaultMethods = defaultMethodsEnabled
+                && !analyzer.getDefaultMethodStubs(Type.getObjectType(reader.getClassName())).isEmpty();
+        if (!natjSupportEnabled && !inheritsDefaultMethods && !needsTransforming(features)) {
+            // avoid the cost of parsing and regenerating the class
+            return LowerBytecodeVersion.lowerBytecodeVersion(reader.b, targetVersion);
+        }
+        return transform(reader, features, (next) -> {
             if (defaultMethodsEnabled) {
-                next = new UpdateRelocatedMethodInvocations(next, analyzer);
+                next = updateRelocatedMethodInvocations(next, features);
                 if (natjSupportEnabled) {
                 	next = new AddMissingAnnotations(next);
                 }
-                next = new AddMethodDefaultImplementations(next, analyzer);
+                if (inheritsDefaultMethods) {
+                    next = new AddMethodDefaultImplementations(next, analyzer);
+                }
             }
-            next = new BackportLambdaInvocations(next);
+            next = backportLambdaInvocations(next, features);
             if (natjSupportEnabled) {
                 next = new AddMissingNatJRegister(next);
             }
@@ -65,11 +93,12 @@ public class Transformers {
     }
 
     public byte[] backportInterface(ClassReader reader) {
-        return transform(reader, (next) -> {
+        int features = ConstantPoolScanner.scan(reader);
+        return transform(reader, features, (next) -> {
             if (defaultMethodsEnabled) {
                 next = new RemoveStaticMethods(next);
                 next = new RemoveDefaultMethodBodies(next);
-                next = new UpdateRelocatedMethodInvocations(next, analyzer);
+                next = updateRelocatedMethodInvocations(next, features);
             } else {
                 // XXX: It would be better to remove only those static methods which are lambda implementation methods,
                 // but that would either require the use of naming patterns (not guaranteed to work with every Java compiler)
@@ -78,7 +107,7 @@ public class Transformers {
                 next = new WarnAboutDefaultAndStaticMethods(next);
             }
             next = new RemoveBridgeMethods(next);
-            next = new BackportLambdaInvocations(next);
+            next = backportLambdaInvocations(next, features);
             return next;
         });
     }
@@ -88,25 +117,56 @@ public class Transformers {
         if (!companion.isPresent()) {
             return null;
         }
-        return transform(reader, (next) -> {
-            next = new UpdateRelocatedMethodInvocations(next, analyzer);
+        int features = ConstantPoolScanner.scan(reader);
+        return transform(reader, features, (next) -> {
+            next = updateRelocatedMethodInvocations(next, features);
             next = new ExtractInterfaceCompanionClass(next, companion.get());
             // XXX: We call BackportLambdaInvocations twice on the same interface (in backportInterface and extractInterfaceCompanion)
             // - is this a problem, because it tries to load the lambda class twice?
-            next = new BackportLambdaInvocations(next);
+            next = backportLambdaInvocations(next, features);
             return next;
         });
     }
 
-    private byte[] transform(ClassReader reader, ClassVisitorChain chain) {
+    // The following visitors are used only for the classes which contain
+    // the instructions they change, as found out by ConstantPoolScanner.
+
+    private boolean needsTransforming(int features) {
+        return hasFeature(features, ConstantPoolScanner.LAMBDAS)
+                || hasFeature(features, ConstantPoolScanner.INTERFACE_METHOD_CALLS)
+                || swallowsSuppressedExceptions(features);
+    }
+
+    private boolean swallowsSuppressedExceptions(int features) {
+        return targetVersion < Opcodes.V1_7
+                && hasFeature(features, ConstantPoolScanner.ADD_SUPPRESSED);
+    }
+
+    private ClassVisitor updateRelocatedMethodInvocations(ClassVisitor next, int features) {
+        if (!hasFeature(features, ConstantPoolScanner.INTERFACE_METHOD_CALLS)) {
+            return next;
+        }
+        return new UpdateRelocatedMethodInvocations(next, analyzer);
+    }
+
+    private ClassVisitor backportLambdaInvocations(ClassVisitor next, int features) {
+        if (!hasFeature(features, ConstantPoolScanner.LAMBDAS)) {
+            return next;
+        }
+        return new BackportLambdaInvocations(next, lambdaClassSaver, lambdaSynthesisEnabled);
+    }
+
+    private byte[] transform(ClassReader reader, int features, ClassVisitorChain chain) {
         ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
         ClassVisitor next = writer;
 
         next = new LowerBytecodeVersion(next, targetVersion);
-        if (targetVersion < Opcodes.V1_7) {
+        if (swallowsSuppressedExceptions(features)) {
             next = new SwallowSuppressedExceptions(next);
         }
-        next = new FixInvokeStaticOnInterfaceMethod(next);
+        if (hasFeature(features, ConstantPoolScanner.INTERFACE_METHOD_CALLS)) {
+            next = new FixInvokeStaticOnInterfaceMethod(next);
+        }
         next = chain.wrap(next);
 
         reader.accept(next, 0);
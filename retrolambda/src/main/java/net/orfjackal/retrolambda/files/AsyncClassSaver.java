@@ -0,0 +1,102 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes the classes in background threads, so that backporting doesn't need
+ * to wait for the file system. If the writers fall behind, the thread calling
+ * {@link #save} writes the class itself, which limits the memory usage.
+ * The classes have been written after {@link #finish} returns. Also {@link #close}
+ * waits for the queued writes, so that no file is left half-written when the
+ * backporting fails, which matters when the output directory is the input directory.
+ */
+public class AsyncClassSaver extends ClassSaver {
+
+    private static final int QUEUE_SIZE_PER_THREAD = 64;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public AsyncClassSaver(Path outputDir, int threads) {
+        super(outputDir);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD),
+                runnable -> {
+                    Thread t = new Thread(runnable, "retrolambda-class-saver");
+                    t.setDaemon(true);
+                    return t;
+                },
+                (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new IllegalStateException("The classes have already been saved");
+                    }
+                    runnable.run();
+                });
+    }
+
+    @Override
+    public void save(String className, byte[] bytecode) throws IOException {
+        checkFailure();
+        if (bytecode == null) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                super.save(className, bytecode);
+            } catch (Throwable t) {
+                // otherwise an unchecked exception would only end this task, and the class would be silently missing
+                failure.compareAndSet(null, t);
+            }
+        });
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new IOException("Failed to save a class", t);
+        }
+    }
+
+    /**
+     * Waits for all classes to be written.
+     */
+    @Override
+    public void finish() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while saving classes", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Waits for the queued classes to be written, but doesn't report their failures,
+     * because this is called also when the backporting has already failed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // interrupting a write could leave the file truncated
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -13,12 +13,12 @@ public abstract class BytecodeFileVisitor extends SimpleFileVisitor<Path> {
     @Override
     public FileVisitResult visitFile(Path inputFile, BasicFileAttributes attrs) throws IOException {
         if (isJavaClass(inputFile)) {
-            visit(Files.readAllBytes(inputFile));
+            visit(inputFile);
         }
         return FileVisitResult.CONTINUE;
     }
 
-    protected abstract void visit(byte[] bytecode);
+    protected abstract void visit(Path inputFile) throws IOException;
 
     private static boolean isJavaClass(Path file) {
         return file.getFileName().toString().endsWith(".class");
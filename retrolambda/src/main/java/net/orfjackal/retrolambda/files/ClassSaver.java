@@ -8,10 +8,13 @@ import org.objectweb.asm.ClassReader;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class ClassSaver {
+public class ClassSaver implements AutoCloseable {
 
-    private final Path outputDir;
+    protected final Path outputDir;
+    private final Set<Path> existingDirs = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
     public ClassSaver(Path outputDir) {
         this.outputDir = outputDir;
@@ -22,8 +25,65 @@ public class ClassSaver {
             return;
         }
         ClassReader cr = new ClassReader(bytecode);
-        Path outputFile = outputDir.resolve(cr.getClassName() + ".class");
-        Files.createDirectories(outputFile.getParent());
-        Files.write(outputFile, bytecode);
+        save(cr.getClassName(), bytecode);
+    }
+
+    /**
+     * Saves a class whose name is already known, which avoids parsing the bytecode.
+     */
+    public void save(String className, byte[] bytecode) throws IOException {
+        if (bytecode == null) {
+            return;
+        }
+        write(outputDir.resolve(className + ".class"), bytecode);
+    }
+
+    /**
+     * Copies a file which is not a class file from the input JAR file. When the input
+     * is a directory, the other files are not touched, but the output directory of an
+     * input JAR file must get all of its files.
+     */
+    public void copyResource(JarReader jar, JarReader.Entry entry) throws IOException {
+        Path outputFile = outputDir.resolve(entry.name).normalize();
+        if (!outputFile.startsWith(outputDir.normalize())) {
+            throw new IOException("The JAR file entry " + entry.name + " is outside the output directory");
+        }
+        if (entry.name.endsWith("/")) {
+            Files.createDirectories(outputFile);
+            return;
+        }
+        write(outputFile, jar.read(entry));
+    }
+
+    private void write(Path outputFile, byte[] content) throws IOException {
+        if (hasSameContent(outputFile, content)) {
+            // keep the timestamp, so that the next build steps can see that the file is up-to-date
+            return;
+        }
+        Path dir = outputFile.getParent();
+        if (!existingDirs.contains(dir)) {
+            Files.createDirectories(dir);
+            existingDirs.add(dir);
+        }
+        Files.write(outputFile, content);
+    }
+
+    /**
+     * Called after all classes have been saved successfully.
+     */
+    public void finish() throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    private static boolean hasSameContent(Path file, byte[] content) throws IOException {
+        try {
+            return Files.size(file) == content.length
+                    && Arrays.equals(Files.readAllBytes(file), content);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
     }
 }
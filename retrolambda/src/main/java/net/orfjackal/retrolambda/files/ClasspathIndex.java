@@ -0,0 +1,255 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.*;
+
+/**
+ * Finds files on a classpath. The entries of the JAR files are indexed by their
+ * package, so that finding a file needs to look only into the JAR files which
+ * contain that package, instead of every JAR file on the classpath. The earlier
+ * classpath elements take precedence, the same way as with a normal classpath.
+ */
+public class ClasspathIndex implements Closeable {
+
+    private final List<Element> elements = new ArrayList<>();
+    private final Map<String, List<Element>> elementsByPackage = new ConcurrentHashMap<>();
+
+    public ClasspathIndex(List<Path> classpath) throws IOException {
+        try {
+            for (Path path : classpath) {
+                if (Files.isDirectory(path)) {
+                    elements.add(new DirectoryElement(path));
+                } else if (Files.isRegularFile(path)) {
+                    elements.add(openJar(path));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static Element openJar(Path path) throws IOException {
+        try {
+            return new JarElement(path);
+        } catch (ZipException e) {
+            // e.g. a ZIP64 file, which only java.util.zip supports
+            return new ZipFileElement(path);
+        }
+    }
+
+    /**
+     * Returns the content of the file, or null if it is not on the classpath.
+     *
+     * @param name a slash-separated path, e.g. {@code "java/lang/Object.class"}
+     */
+    public byte[] read(String name) throws IOException {
+        for (Element element : getElements(name)) {
+            byte[] content = element.read(name);
+            if (content != null) {
+                return content;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the URL of the file, or null if it is not on the classpath.
+     */
+    public URL getUrl(String name) throws IOException {
+        for (Element element : getElements(name)) {
+            URL url = element.getUrl(name);
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the URLs of all the files of this name, in the classpath order.
+     */
+    public List<URL> getUrls(String name) throws IOException {
+        List<URL> urls = new ArrayList<>();
+        for (Element element : getElements(name)) {
+            URL url = element.getUrl(name);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+
+    private List<Element> getElements(String name) {
+        String packageName = getPackage(name);
+        List<Element> result = elementsByPackage.get(packageName);
+        if (result == null) {
+            result = new ArrayList<>();
+            for (Element element : elements) {
+                if (element.mayContain(packageName)) {
+                    result.add(element);
+                }
+            }
+            elementsByPackage.put(packageName, result);
+        }
+        return result;
+    }
+
+    private static String getPackage(String name) {
+        int i = name.lastIndexOf('/');
+        return i < 0 ? "" : name.substring(0, i);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Element element : elements) {
+            try {
+                element.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+
+    private interface Element extends Closeable {
+
+        boolean mayContain(String packageName);
+
+        byte[] read(String name) throws IOException;
+
+        URL getUrl(String name) throws IOException;
+    }
+
+    private static class DirectoryElement implements Element {
+
+        private final Path dir;
+
+        public DirectoryElement(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public boolean mayContain(String packageName) {
+            // the directories are usually few, so they don't need an index
+            return true;
+        }
+
+        @Override
+        public byte[] read(String name) throws IOException {
+            try {
+                return Files.readAllBytes(dir.resolve(name));
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public URL getUrl(String name) throws IOException {
+            Path file = dir.resolve(name);
+            return Files.exists(file) ? file.toUri().toURL() : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class JarElement implements Element {
+
+        private final Path file;
+        private final JarReader jar;
+        private final Map<String, JarReader.Entry> entries = new HashMap<>();
+        private final Set<String> packages = new HashSet<>();
+
+        public JarElement(Path file) throws IOException {
+            this.file = file;
+            this.jar = new JarReader(file);
+            for (JarReader.Entry entry : jar.getEntries()) {
+                entries.put(entry.name, entry);
+                packages.add(getPackage(entry.name));
+            }
+        }
+
+        @Override
+        public boolean mayContain(String packageName) {
+            return packages.contains(packageName);
+        }
+
+        @Override
+        public byte[] read(String name) throws IOException {
+            JarReader.Entry entry = entries.get(name);
+            return entry == null ? null : jar.read(entry);
+        }
+
+        @Override
+        public URL getUrl(String name) throws IOException {
+            return entries.containsKey(name) ? new URL("jar:" + file.toUri() + "!/" + name) : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            jar.close();
+        }
+    }
+
+    private static class ZipFileElement implements Element {
+
+        private final Path file;
+        private final ZipFile zip;
+        private final Set<String> packages = new HashSet<>();
+
+        public ZipFileElement(Path file) throws IOException {
+            this.file = file;
+            this.zip = new ZipFile(file.toFile());
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                packages.add(getPackage(entries.nextElement().getName()));
+            }
+        }
+
+        @Override
+        public boolean mayContain(String packageName) {
+            return packages.contains(packageName);
+        }
+
+        @Override
+        public synchronized byte[] read(String name) throws IOException {
+            ZipEntry entry = zip.getEntry(name);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            }
+        }
+
+        @Override
+        public URL getUrl(String name) throws IOException {
+            return zip.getEntry(name) != null ? new URL("jar:" + file.toUri() + "!/" + name) : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+}
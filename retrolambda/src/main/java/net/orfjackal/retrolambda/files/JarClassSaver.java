@@ -0,0 +1,93 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import net.orfjackal.retrolambda.lambdas.LambdaNaming;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Saves the classes into a JAR file. The JAR file is first written to a temporary
+ * file, so that the input JAR file may also be the output JAR file, and so that a
+ * failed build won't leave behind an incomplete JAR file.
+ * <p>
+ * The entries are written in the order in which the classes are saved, so the
+ * classes must be saved in their input order for the JAR file to be the same on
+ * every build. The lambda classes are generated while backporting their invoker,
+ * possibly in parallel with other classes, so they are held back and written
+ * right before their invoker.
+ */
+public class JarClassSaver extends ClassSaver {
+
+    private final Path tmpFile;
+    private final JarWriter writer;
+    private final Map<String, List<JarWriter.DeflatedEntry>> lambdaClassesByInvoker = new ConcurrentHashMap<>();
+    private boolean finished = false;
+
+    public JarClassSaver(Path jarFile) throws IOException {
+        super(jarFile);
+        Path dir = jarFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        this.tmpFile = Files.createTempFile(dir, jarFile.getFileName().toString(), ".tmp");
+        this.writer = new JarWriter(tmpFile);
+    }
+
+    @Override
+    public void save(String className, byte[] bytecode) throws IOException {
+        if (LambdaNaming.LAMBDA_CLASS.matcher(className).matches()) {
+            if (bytecode != null) {
+                String invoker = className.substring(0, className.lastIndexOf("$$Lambda$"));
+                JarWriter.DeflatedEntry entry = JarWriter.deflate(className + ".class", bytecode);
+                // the lambda classes of one invoker are generated by one thread, in the same order every time
+                lambdaClassesByInvoker.computeIfAbsent(invoker, k -> Collections.synchronizedList(new ArrayList<>())).add(entry);
+            }
+            return;
+        }
+        writeLambdaClasses(lambdaClassesByInvoker.remove(className));
+        if (bytecode == null) {
+            return;
+        }
+        writer.write(JarWriter.deflate(className + ".class", bytecode));
+    }
+
+    private void writeLambdaClasses(List<JarWriter.DeflatedEntry> entries) throws IOException {
+        if (entries == null) {
+            return;
+        }
+        for (JarWriter.DeflatedEntry entry : entries) {
+            writer.write(entry);
+        }
+    }
+
+    @Override
+    public void copyResource(JarReader jar, JarReader.Entry entry) throws IOException {
+        writer.copy(jar, entry);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        // in case some invoker was not saved
+        for (String invoker : new TreeSet<>(lambdaClassesByInvoker.keySet())) {
+            writeLambdaClasses(lambdaClassesByInvoker.remove(invoker));
+        }
+        writer.close();
+        Files.move(tmpFile, outputDir, StandardCopyOption.REPLACE_EXISTING);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            try {
+                writer.close();
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Reads the entries of a JAR or ZIP file using its central directory. The file is
+ * memory-mapped, so that the entries which are copied to another JAR file as-is
+ * don't need to be decompressed or copied into the heap.
+ */
+public class JarReader implements Closeable {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int LOCAL_HEADER_SIZE = 30;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final List<Entry> entries = new ArrayList<>();
+
+    public JarReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            readCentralDirectory(file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readCentralDirectory(Path file) throws IOException {
+        int end = findEndOfCentralDirectory();
+        if (end < 0) {
+            throw new ZipException("Not a JAR file: " + file);
+        }
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long offset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 files are not supported: " + file);
+        }
+        int u = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(u) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory in " + file);
+            }
+            int nameLength = buffer.getShort(u + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(u + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(u + 32) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            getBytes(u + CENTRAL_HEADER_SIZE, name);
+            byte[] extra = new byte[extraLength];
+            getBytes(u + CENTRAL_HEADER_SIZE + nameLength, extra);
+            entries.add(new Entry(
+                    buffer.getShort(u + 6) & 0xFFFF,
+                    buffer.getShort(u + 8) & 0xFFFF,
+                    buffer.getShort(u + 10) & 0xFFFF,
+                    buffer.getInt(u + 12),
+                    buffer.getInt(u + 16),
+                    buffer.getInt(u + 20) & 0xFFFFFFFFL,
+                    buffer.getInt(u + 24) & 0xFFFFFFFFL,
+                    name,
+                    extra,
+                    buffer.getInt(u + 42) & 0xFFFFFFFFL));
+            u += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private int findEndOfCentralDirectory() {
+        // the end of central directory record is followed by a comment of at most 65535 bytes
+        int last = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        for (int u = last; u >= 0 && u >= last - 0xFFFF; u--) {
+            if (buffer.getInt(u) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return u;
+            }
+        }
+        return -1;
+    }
+
+    private void getBytes(int index, byte[] dest) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(index);
+        b.get(dest);
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Returns the uncompressed content of the entry.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        ByteBuffer data = getRawData(entry);
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new ZipException("Too large entry: " + entry.name);
+        }
+        byte[] content = new byte[(int) entry.size];
+        if (entry.method == ZipEntry.STORED) {
+            data.get(content);
+            return content;
+        }
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " of " + entry.name);
+        }
+        // the inflater needs an extra dummy byte when reading raw deflate data
+        byte[] compressed = new byte[data.remaining() + 1];
+        data.get(compressed, 0, data.remaining());
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < content.length) {
+                int read = inflater.inflate(content, n, content.length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated entry: " + entry.name);
+                }
+                n += read;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupted entry " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return content;
+    }
+
+    /**
+     * Returns the compressed content of the entry, for copying it without decompressing.
+     */
+    ByteBuffer getRawData(Entry entry) throws IOException {
+        int u = (int) entry.localHeaderOffset;
+        if (buffer.getInt(u) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header of " + entry.name);
+        }
+        int nameLength = buffer.getShort(u + 26) & 0xFFFF;
+        int extraLength = buffer.getShort(u + 28) & 0xFFFF;
+        ByteBuffer data = buffer.duplicate();
+        data.position(u + LOCAL_HEADER_SIZE + nameLength + extraLength);
+        data.limit(data.position() + (int) entry.compressedSize);
+        return data.slice();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+    public static class Entry {
+
+        public final String name;
+        final int versionNeeded;
+        final int flags;
+        final int method;
+        final int dosTime;
+        final int crc;
+        final long compressedSize;
+        final long size;
+        final byte[] rawName;
+        final byte[] extra;
+        final long localHeaderOffset;
+
+        Entry(int versionNeeded, int flags, int method, int dosTime, int crc, long compressedSize, long size,
+              byte[] rawName, byte[] extra, long localHeaderOffset) {
+            this.versionNeeded = versionNeeded;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.rawName = rawName;
+            this.extra = extra;
+            this.localHeaderOffset = localHeaderOffset;
+            this.name = new String(rawName, StandardCharsets.UTF_8);
+        }
+
+        public boolean isClassFile() {
+            return name.endsWith(".class");
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
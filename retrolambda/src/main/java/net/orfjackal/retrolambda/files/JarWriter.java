@@ -0,0 +1,190 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static net.orfjackal.retrolambda.files.JarReader.*;
+
+/**
+ * Writes a JAR file, either by compressing new entries or by copying the
+ * already compressed entries of another JAR file.
+ */
+public class JarWriter implements Closeable {
+
+    private static final int VERSION_NEEDED_TO_EXTRACT = 20;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    // 1980-01-01 00:00, the earliest possible time, so that the same input will produce the same JAR file
+    private static final int DOS_TIME = (1 << 21) | (1 << 16);
+
+    private final WritableByteChannel out;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final Set<String> names = new HashSet<>();
+    private long offset = 0;
+    private int count = 0;
+
+    public JarWriter(Path file) throws IOException {
+        this.out = Channels.newChannel(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+    }
+
+    /**
+     * Compresses and writes a new entry. If an entry with the same name has already been
+     * written, does nothing; the same lambda class may be generated more than once.
+     */
+    public void write(String name, byte[] content) throws IOException {
+        write(deflate(name, content));
+    }
+
+    /**
+     * Writes an entry which was compressed with {@link #deflate}. If an entry with
+     * the same name has already been written, does nothing.
+     */
+    public synchronized void write(DeflatedEntry entry) throws IOException {
+        if (!names.add(entry.name)) {
+            return;
+        }
+        writeEntry(VERSION_NEEDED_TO_EXTRACT, FLAG_UTF8, ZipEntry.DEFLATED, DOS_TIME, entry.crc,
+                entry.compressed.length, entry.size, entry.name.getBytes(StandardCharsets.UTF_8), new byte[0],
+                ByteBuffer.wrap(entry.compressed));
+    }
+
+    /**
+     * Compresses an entry for {@link #write(DeflatedEntry)}. Doesn't need the lock
+     * of the JAR file, so the entries can be compressed in parallel.
+     */
+    public static DeflatedEntry deflate(String name, byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(content.length / 2 + 64);
+        byte[] buf = new byte[8192];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                result.write(buf, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new DeflatedEntry(name, (int) crc.getValue(), content.length, result.toByteArray());
+    }
+
+    /**
+     * Copies an entry from another JAR file without decompressing it.
+     */
+    public synchronized void copy(JarReader jar, JarReader.Entry entry) throws IOException {
+        if (!names.add(entry.name)) {
+            return;
+        }
+        // the sizes are written to the local header, so no data descriptor will follow the data
+        writeEntry(entry.versionNeeded, entry.flags & ~FLAG_DATA_DESCRIPTOR, entry.method, entry.dosTime, entry.crc,
+                entry.compressedSize, entry.size, entry.rawName, entry.extra,
+                jar.getRawData(entry));
+    }
+
+    private void writeEntry(int versionNeeded, int flags, int method, int dosTime, int crc,
+                            long compressedSize, long size, byte[] name, byte[] extra, ByteBuffer data) throws IOException {
+        if (count == 0xFFFF || offset + LOCAL_HEADER_SIZE + name.length + extra.length + compressedSize > 0xFFFFFFFFL) {
+            throw new ZipException("Too large JAR file; ZIP64 is not supported");
+        }
+        ByteBuffer header = newBuffer(LOCAL_HEADER_SIZE + name.length + extra.length);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) versionNeeded);
+        header.putShort((short) flags);
+        header.putShort((short) method);
+        header.putInt(dosTime);
+        header.putInt(crc);
+        header.putInt((int) compressedSize);
+        header.putInt((int) size);
+        header.putShort((short) name.length);
+        header.putShort((short) extra.length);
+        header.put(name);
+        header.put(extra);
+        header.flip();
+
+        ByteBuffer central = newBuffer(CENTRAL_HEADER_SIZE + name.length + extra.length);
+        central.putInt(CENTRAL_HEADER_SIGNATURE);
+        central.putShort((short) VERSION_NEEDED_TO_EXTRACT); // version made by
+        central.putShort((short) versionNeeded);
+        central.putShort((short) flags);
+        central.putShort((short) method);
+        central.putInt(dosTime);
+        central.putInt(crc);
+        central.putInt((int) compressedSize);
+        central.putInt((int) size);
+        central.putShort((short) name.length);
+        central.putShort((short) extra.length);
+        central.putShort((short) 0); // comment length
+        central.putShort((short) 0); // disk number start
+        central.putShort((short) 0); // internal file attributes
+        central.putInt(0); // external file attributes
+        central.putInt((int) offset);
+        central.put(name);
+        central.put(extra);
+        centralDirectory.write(central.array(), 0, central.position());
+
+        offset += writeFully(header) + writeFully(data);
+        count++;
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int writeFully(ByteBuffer buffer) throws IOException {
+        int n = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            byte[] directory = centralDirectory.toByteArray();
+            ByteBuffer end = newBuffer(END_OF_CENTRAL_DIRECTORY_SIZE);
+            end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            end.putShort((short) 0); // number of this disk
+            end.putShort((short) 0); // disk where central directory starts
+            end.putShort((short) count);
+            end.putShort((short) count);
+            end.putInt(directory.length);
+            end.putInt((int) offset);
+            end.putShort((short) 0); // comment length
+            end.flip();
+            writeFully(ByteBuffer.wrap(directory));
+            writeFully(end);
+        } finally {
+            out.close();
+        }
+    }
+
+
+    public static class DeflatedEntry {
+
+        public final String name;
+        final int crc;
+        final int size;
+        final byte[] compressed;
+
+        DeflatedEntry(String name, int crc, int size, byte[] compressed) {
+            this.name = name;
+            this.crc = crc;
+            this.size = size;
+            this.compressed = compressed;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Lists a directory tree like {@link Files#walkFileTree(Path, FileVisitor)}, but
+ * lists the subdirectories in parallel. Only {@link FileVisitor#visitFile} is
+ * called, on the calling thread, after the whole tree has been listed. The files
+ * of a directory are visited before the files of its subdirectories, and both are
+ * sorted by name, so that the order doesn't depend on the file system.
+ */
+public class ParallelFileWalker {
+
+    public static void walkFileTree(Path dir, FileVisitor<? super Path> visitor, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<FileEntry> files;
+        try {
+            files = pool.invoke(new ListFiles(dir));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+        for (FileEntry file : files) {
+            if (visitor.visitFile(file.path, file.attrs) == FileVisitResult.TERMINATE) {
+                return;
+            }
+        }
+    }
+
+    private static class FileEntry {
+        final Path path;
+        final BasicFileAttributes attrs;
+
+        FileEntry(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+
+    private static class ListFiles extends RecursiveTask<List<FileEntry>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        public ListFiles(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<FileEntry> compute() {
+            List<FileEntry> files = new ArrayList<>();
+            List<ListFiles> subdirs = new ArrayList<>();
+            try {
+                for (Path entry : listSorted(dir)) {
+                    // like Files.walkFileTree, doesn't follow symbolic links
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        ListFiles subdir = new ListFiles(entry);
+                        subdir.fork();
+                        subdirs.add(subdir);
+                    } else {
+                        files.add(new FileEntry(entry, attrs));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (ListFiles subdir : subdirs) {
+                files.addAll(subdir.join());
+            }
+            return files;
+        }
+
+        private static List<Path> listSorted(Path dir) throws IOException {
+            List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    entries.add(entry);
+                }
+            }
+            Collections.sort(entries);
+            return entries;
+        }
+    }
+}
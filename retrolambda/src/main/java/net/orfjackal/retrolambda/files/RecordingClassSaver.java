@@ -0,0 +1,30 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import java.io.IOException;
+
+/**
+ * Lets the {@link TransformationCache} know about the lambda classes which are saved.
+ */
+public class RecordingClassSaver extends ClassSaver {
+
+    private final ClassSaver target;
+    private final TransformationCache cache;
+
+    public RecordingClassSaver(ClassSaver target, TransformationCache cache) {
+        super(target.outputDir);
+        this.target = target;
+        this.cache = cache;
+    }
+
+    @Override
+    public void save(String className, byte[] bytecode) throws IOException {
+        target.save(className, bytecode);
+        if (bytecode != null) {
+            cache.recordGeneratedClass(className, bytecode);
+        }
+    }
+}
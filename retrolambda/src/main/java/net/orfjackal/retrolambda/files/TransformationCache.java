@@ -0,0 +1,286 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import com.google.common.hash.*;
+import net.orfjackal.retrolambda.interfaces.*;
+import net.orfjackal.retrolambda.lambdas.LambdaNaming;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Remembers the results of backporting classes between builds. The results are
+ * keyed by a hash of the original bytecode, the configuration and the parts of
+ * the class hierarchy which may affect how the class is backported. The key also
+ * includes a hash of Retrolambda's own code, because a rebuilt Retrolambda may
+ * backport the classes differently even though its version stays the same.
+ * <p>
+ * Every change to a class produces a new entry, so the entries which have not been
+ * used for {@value #MAX_UNUSED_DAYS} days are removed. The last modified time of an
+ * entry is the time when it was last used, updated at most once a day.
+ */
+public class TransformationCache {
+
+    private static final HashFunction HASH = Hashing.sha1();
+    private static final int FORMAT_VERSION = 2;
+
+    public static final int MAX_UNUSED_DAYS = 30;
+    private static final long MAX_UNUSED_MILLIS = TimeUnit.DAYS.toMillis(MAX_UNUSED_DAYS);
+    private static final long UPDATE_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final String LAST_CLEANUP_FILE = "last-cleanup";
+
+    private static HashCode implementationHash;
+
+    private final Path cacheDir;
+    private final HashCode configHash;
+    private HashCode interfacesHash;
+    private final ConcurrentMap<String, Map<String, byte[]>> generatedClassesByInvoker = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public TransformationCache(Path cacheDir, String config) throws IOException {
+        this.cacheDir = cacheDir;
+        this.configHash = HASH.newHasher()
+                .putBytes(getImplementationHash().asBytes())
+                .putString(config, StandardCharsets.UTF_8)
+                .hash();
+    }
+
+    /**
+     * Hashes the JAR file from which Retrolambda was loaded, or its class files
+     * when it's run from a directory. The daemon may run many builds, so this is
+     * calculated only once.
+     */
+    static synchronized HashCode getImplementationHash() throws IOException {
+        if (implementationHash == null) {
+            Path location;
+            try {
+                location = Paths.get(TransformationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            implementationHash = hashCode(location);
+        }
+        return implementationHash;
+    }
+
+    static HashCode hashCode(Path location) throws IOException {
+        Hasher h = HASH.newHasher();
+        if (Files.isRegularFile(location)) {
+            h.putBytes(Files.readAllBytes(location));
+        } else {
+            List<Path> classFiles;
+            try (Stream<Path> files = Files.walk(location)) {
+                classFiles = files
+                        .filter(file -> file.getFileName().toString().endsWith(".class"))
+                        .sorted()
+                        .collect(toList());
+            }
+            for (Path file : classFiles) {
+                putString(h, location.relativize(file).toString());
+                byte[] bytecode = Files.readAllBytes(file);
+                h.putInt(bytecode.length);
+                h.putBytes(bytecode);
+            }
+        }
+        return h.hash();
+    }
+
+    /**
+     * Must be called after all classes have been analyzed and before calculating any keys.
+     */
+    public void setHierarchy(ClassHierarchyAnalyzer analyzer) {
+        // Any class may call the static methods or default methods of any
+        // interface, so a change in the interfaces invalidates all classes.
+        Hasher h = HASH.newHasher();
+        List<ClassInfo> interfaces = analyzer.getInterfaces().stream()
+                .sorted((a, b) -> a.type.getInternalName().compareTo(b.type.getInternalName()))
+                .collect(toList());
+        for (ClassInfo c : interfaces) {
+            putString(h, c.type.getInternalName());
+            putString(h, c.getInterfaces().toString());
+            putString(h, c.getMethods().toString());
+            putString(h, c.getCompanionClass().toString());
+        }
+        analyzer.getRelocatedMethods().entrySet().stream()
+                .map(Object::toString)
+                .sorted()
+                .forEach(relocation -> putString(h, relocation));
+        interfacesHash = h.hash();
+    }
+
+    public String getKey(ClassInfo c, byte[] bytecode, ClassHierarchyAnalyzer analyzer) {
+        Hasher h = HASH.newHasher();
+        h.putInt(FORMAT_VERSION);
+        h.putBytes(configHash.asBytes());
+        h.putBytes(interfacesHash.asBytes());
+        h.putInt(bytecode.length);
+        h.putBytes(bytecode);
+        if (c.isClass()) {
+            // the inherited methods determine which default methods the class must implement
+            analyzer.getMethods(c.type).stream()
+                    .map(Object::toString)
+                    .sorted()
+                    .forEach(method -> putString(h, method));
+        }
+        return h.hash().toString();
+    }
+
+    private static void putString(Hasher h, String s) {
+        h.putInt(s.length());
+        h.putString(s, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the classes which were produced by backporting the class with the given key,
+     * or null if they are not in the cache.
+     */
+    public Map<String, byte[]> get(String key) {
+        Path file = getFile(key);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+        markUsed(file, attrs);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int count = in.readInt();
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String className = in.readUTF();
+                byte[] bytecode = new byte[in.readInt()];
+                in.readFully(bytecode);
+                classes.put(className, bytecode);
+            }
+            hits.incrementAndGet();
+            return classes;
+        } catch (IOException e) {
+            // a corrupted cache entry will be overwritten with a new one
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the classes which were produced by backporting the class with the given key,
+     * together with the lambda classes which were generated for it.
+     */
+    public void put(String key, String className, Map<String, byte[]> classes) throws IOException {
+        Map<String, byte[]> entry = new LinkedHashMap<>(classes);
+        Map<String, byte[]> generated = generatedClassesByInvoker.remove(className);
+        if (generated != null) {
+            entry.putAll(generated);
+        }
+
+        Path file = getFile(key);
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(entry.size());
+                for (Map.Entry<String, byte[]> e : entry.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeInt(e.getValue().length);
+                    out.write(e.getValue());
+                }
+            }
+            // concurrent builds may write the same entry, but its content will be the same
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void markUsed(Path file, BasicFileAttributes attrs) {
+        long now = System.currentTimeMillis();
+        if (attrs.lastModifiedTime().toMillis() < now - UPDATE_INTERVAL_MILLIS) {
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+            } catch (IOException e) {
+                // removed concurrently; then it will just be written again
+            }
+        }
+    }
+
+    /**
+     * Removes the entries which have not been used for {@value #MAX_UNUSED_DAYS} days.
+     * Listing the whole cache is slow, so this is done at most once a day.
+     */
+    public void removeUnusedEntries() throws IOException {
+        removeUnusedEntries(System.currentTimeMillis());
+    }
+
+    void removeUnusedEntries(long now) throws IOException {
+        Path lastCleanup = cacheDir.resolve(LAST_CLEANUP_FILE);
+        if (Files.exists(lastCleanup)) {
+            if (Files.getLastModifiedTime(lastCleanup).toMillis() >= now - UPDATE_INTERVAL_MILLIS) {
+                return;
+            }
+            Files.setLastModifiedTime(lastCleanup, FileTime.fromMillis(now));
+        } else {
+            Files.createDirectories(cacheDir);
+            Files.write(lastCleanup, new byte[0]);
+        }
+
+        // the directories are left in place, because a concurrent build may be writing to them
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(cacheDir, TransformationCache::isEntryDirectory)) {
+            for (Path dir : dirs) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        try {
+                            if (Files.getLastModifiedTime(file).toMillis() < now - MAX_UNUSED_MILLIS) {
+                                Files.deleteIfExists(file);
+                            }
+                        } catch (NoSuchFileException e) {
+                            // removed concurrently
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isEntryDirectory(Path path) {
+        // don't touch any other files, in case the cache directory is shared with something else
+        return path.getFileName().toString().matches("[0-9a-f]{2}") && Files.isDirectory(path);
+    }
+
+    /**
+     * Keeps track of the lambda classes, so that they can be cached together with the class which
+     * contains the lambda expressions. Should be called for every class which is saved.
+     */
+    public void recordGeneratedClass(String className, byte[] bytecode) {
+        if (LambdaNaming.LAMBDA_CLASS.matcher(className).matches()) {
+            String invoker = className.substring(0, className.lastIndexOf("$$Lambda$"));
+            generatedClassesByInvoker
+                    .computeIfAbsent(invoker, k -> new ConcurrentSkipListMap<>())
+                    .put(className, bytecode);
+        }
+    }
+
+    private Path getFile(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+}
@@ -27,7 +27,7 @@ public class AddMethodDefaultImplementations extends ClassVisitor {
 
     @Override
     public void visitEnd() {
-        for (MethodInfo method : analyzer.getDefaultMethods(Type.getObjectType(className))) {
+        for (MethodInfo method : analyzer.getDefaultMethodStubs(Type.getObjectType(className))) {
             Bytecode.generateDelegateMethod(cv,
                     ACC_PUBLIC | ACC_SYNTHETIC,
                     method.toMethodRef().toHandle(H_INVOKEVIRTUAL),
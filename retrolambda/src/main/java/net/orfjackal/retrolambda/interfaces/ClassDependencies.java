@@ -0,0 +1,80 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.interfaces;
+
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+/**
+ * Finds out which classes must be backported again when some classes change.
+ * The default methods added to a class depend on all of its ancestors, and
+ * the calls to an interface's static methods depend on the interface.
+ */
+public class ClassDependencies {
+
+    private final Map<Type, Set<Type>> subtypes = new HashMap<>();
+    private final Map<Type, Set<Type>> callers = new HashMap<>();
+
+    public ClassDependencies(Collection<ClassInfo> classes) {
+        for (ClassInfo c : classes) {
+            if (c.superclass != null) {
+                addDependency(subtypes, c.superclass, c.type);
+            }
+            for (Type iface : c.getInterfaces()) {
+                addDependency(subtypes, iface, c.type);
+            }
+            for (Type iface : c.getReferencedInterfaces()) {
+                addDependency(callers, iface, c.type);
+            }
+        }
+    }
+
+    private static void addDependency(Map<Type, Set<Type>> dependencies, Type dependency, Type dependent) {
+        dependencies.computeIfAbsent(dependency, key -> new LinkedHashSet<>()).add(dependent);
+    }
+
+    /**
+     * Returns the classes which depend on the changed classes, not including the changed classes themselves.
+     */
+    public Set<Type> getDependents(Collection<Type> changed) {
+        Set<Type> hierarchy = new LinkedHashSet<>(changed);
+        Deque<Type> queue = new ArrayDeque<>(changed);
+        while (!queue.isEmpty()) {
+            for (Type subtype : subtypes.getOrDefault(queue.pop(), Collections.emptySet())) {
+                if (hierarchy.add(subtype)) {
+                    queue.add(subtype);
+                }
+            }
+        }
+
+        // Backporting the callers again doesn't change their information in
+        // the class hierarchy, so it's not necessary to follow their dependents.
+        Set<Type> dependents = new LinkedHashSet<>(hierarchy);
+        for (Type type : hierarchy) {
+            dependents.addAll(callers.getOrDefault(type, Collections.emptySet()));
+        }
+        dependents.removeAll(changed);
+        return dependents;
+    }
+
+    /**
+     * Tells whether a class was changed in a way which may affect the classes that depend on it.
+     * Changes to the method bodies don't affect other classes. The relocated methods are those
+     * of the class itself, as returned by {@link ClassHierarchyAnalyzer#getRelocatedMethods(Type)}.
+     */
+    public static boolean hasChanged(ClassInfo before, Map<MethodRef, MethodRef> relocatedBefore,
+                                     ClassInfo after, Map<MethodRef, MethodRef> relocatedAfter) {
+        if (before == null) {
+            return true;
+        }
+        return before.getAccess() != after.getAccess()
+                || !Objects.equals(before.superclass, after.superclass)
+                || !before.getInterfaces().equals(after.getInterfaces())
+                || !new HashSet<>(before.getMethods()).equals(new HashSet<>(after.getMethods()))
+                || !before.getCompanionClass().equals(after.getCompanionClass())
+                || !relocatedBefore.equals(relocatedAfter);
+    }
+}
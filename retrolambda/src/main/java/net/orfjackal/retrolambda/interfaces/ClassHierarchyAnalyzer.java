@@ -7,32 +7,102 @@ package net.orfjackal.retrolambda.interfaces;
 import net.orfjackal.retrolambda.util.*;
 import org.objectweb.asm.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.stream.Collectors.toList;
 import static org.objectweb.asm.Opcodes.*;
 
 public class ClassHierarchyAnalyzer {
 
-    private final Map<Type, ClassInfo> classes = new HashMap<>();
-    private final Map<MethodRef, MethodRef> relocatedMethods = new HashMap<>();
+    private static final ClassInfo UNKNOWN_CLASS = new ClassInfo();
+
+    // The input classes are analyzed in parallel, and the lambda classes are analyzed
+    // while other classes are being transformed, so these must be safe for concurrent access
+    private final Map<Type, ClassInfo> classes = new ConcurrentHashMap<>();
+    // grouped by owner, so that the static methods of an interface can be replaced at once
+    private final Map<String, Map<MethodRef, MethodRef>> relocatedMethods = new ConcurrentHashMap<>();
+    private final boolean retainBytecode;
+
+    // The method tables are resolved only after all the input classes have been
+    // analyzed. Their ancestors are resolved first and are also cached, so the
+    // caches need to be cleared only when one of the resolved types is changed.
+    private final Map<Type, Map<MethodSignature, MethodInfo>> methodTables = new ConcurrentHashMap<>();
+    private final Map<Type, Set<Type>> allInterfaces = new ConcurrentHashMap<>();
+    private final Map<Type, List<MethodInfo>> defaultMethodStubs = new ConcurrentHashMap<>();
+
+    // Most method calls are to methods which don't have a default implementation,
+    // so this is checked before creating a MethodRef to look up. It is never
+    // removed from, because a false positive only costs a lookup.
+    private final Set<String> namesOfDefaultMethods = ConcurrentHashMap.newKeySet();
+
+    public ClassHierarchyAnalyzer() {
+        this(true);
+    }
 
-    public void analyze(byte[] bytecode) {
-        analyze(new ClassReader(bytecode));
+    /**
+     * @param retainBytecode whether to keep the analyzed classes' bytecode in memory;
+     *                       if false, {@link ClassInfo#getReader()} will read it again from the source file
+     */
+    public ClassHierarchyAnalyzer(boolean retainBytecode) {
+        this.retainBytecode = retainBytecode;
     }
 
-    public void analyze(ClassReader cr) {
-        ClassInfo c = new ClassInfo(cr);
-        classes.put(c.type, c);
+    public ClassInfo analyze(byte[] bytecode) {
+        return analyze(bytecode, null);
+    }
+
+    public ClassInfo analyze(byte[] bytecode, Path sourceFile) {
+        return analyze(new ClassReader(bytecode), sourceFile);
+    }
+
+    public ClassInfo analyze(ClassReader cr) {
+        return analyze(cr, null);
+    }
 
+    private ClassInfo analyze(ClassReader cr, Path sourceFile) {
+        ClassInfo c = retainBytecode ? new ClassInfo(cr) : new ClassInfo(cr, sourceFile);
         if (Flags.hasFlag(cr.getAccess(), ACC_INTERFACE)) {
             analyzeInterface(c, cr);
         } else {
             analyzeClass(c, cr);
         }
+        analyzeReferencedInterfaces(c, cr);
+        // publish only fully analyzed classes, so that concurrent readers won't see partial results
+        publish(c);
+        return c;
+    }
+
+    /**
+     * Adds a class which was analyzed earlier, e.g. in a previous build.
+     */
+    public void addClass(ClassInfo c) {
+        publish(c);
+    }
+
+    private void publish(ClassInfo c) {
+        for (MethodInfo m : c.getMethods()) {
+            if (m.kind instanceof MethodKind.Default) {
+                namesOfDefaultMethods.add(m.signature.name);
+            }
+        }
+        classes.put(c.type, c);
+        if (methodTables.containsKey(c.type) || allInterfaces.containsKey(c.type)) {
+            methodTables.clear();
+            allInterfaces.clear();
+            defaultMethodStubs.clear();
+        }
+    }
+
+    public void addRelocatedMethod(MethodRef method, MethodRef target) {
+        relocatedMethods.computeIfAbsent(method.owner, owner -> new ConcurrentHashMap<>()).put(method, target);
     }
 
     private void analyzeClass(ClassInfo c, ClassReader cr) {
+        // forget the static methods of the class's previous version, in case it was an interface
+        relocatedMethods.remove(c.type.getInternalName());
         cr.accept(new ClassVisitor(ASM5) {
             private String owner;
 
@@ -54,6 +124,7 @@ public class ClassHierarchyAnalyzer {
     }
 
     private void analyzeInterface(ClassInfo c, ClassReader cr) {
+        Map<MethodRef, MethodRef> relocated = new ConcurrentHashMap<>();
         cr.accept(new ClassVisitor(ASM5) {
             private String owner;
             private String companion;
@@ -77,12 +148,34 @@ public class ClassHierarchyAnalyzer {
                     c.addMethod(method, new MethodKind.Default(defaultImpl));
 
                 } else if (isStaticMethod(access)) {
-                    relocatedMethods.put(method, new MethodRef(companion, name, desc));
+                    relocated.put(method, new MethodRef(companion, name, desc));
                     c.enableCompanionClass();
                 }
                 return null;
             }
         }, ClassReader.SKIP_CODE);
+
+        // replaces the static methods of the interface's previous version, if any
+        String owner = c.type.getInternalName();
+        if (relocated.isEmpty()) {
+            relocatedMethods.remove(owner);
+        } else {
+            relocatedMethods.put(owner, relocated);
+        }
+    }
+
+    private static void analyzeReferencedInterfaces(ClassInfo c, ClassReader cr) {
+        // it's enough to look at the constant pool, because all calls to
+        // interface methods must refer to a CONSTANT_InterfaceMethodref
+        char[] buf = new char[cr.getMaxStringLength()];
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            if (ConstantPool.getTag(cr, i) == ConstantPool.INTERFACE_METHODREF) {
+                Type owner = Type.getObjectType(ConstantPool.getOwner(cr, i, buf));
+                if (!owner.equals(c.type)) {
+                    c.addReferencedInterface(owner);
+                }
+            }
+        }
     }
 
     private static boolean isConstructor(String name) {
@@ -116,20 +209,64 @@ public class ClassHierarchyAnalyzer {
                 .collect(toList());
     }
 
+    /**
+     * Returns the original bytecode of an analyzed class, or null if the
+     * class has not been analyzed or its bytecode is not available.
+     */
+    public byte[] getBytecode(Type type) throws IOException {
+        ClassInfo c = classes.get(type);
+        if (c == null || !c.hasBytecode()) {
+            return null;
+        }
+        return c.getBytecode();
+    }
+
     private ClassInfo getClass(Type type) {
-        return classes.getOrDefault(type, new ClassInfo());
+        return classes.getOrDefault(type, UNKNOWN_CLASS);
+    }
+
+    public Map<MethodRef, MethodRef> getRelocatedMethods() {
+        Map<MethodRef, MethodRef> results = new HashMap<>();
+        for (Map<MethodRef, MethodRef> methods : relocatedMethods.values()) {
+            results.putAll(methods);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the relocated methods of one class, without going through the other classes.
+     */
+    public Map<MethodRef, MethodRef> getRelocatedMethods(Type owner) {
+        Map<MethodRef, MethodRef> methods = relocatedMethods.get(owner.getInternalName());
+        return methods == null ? Collections.emptyMap() : new HashMap<>(methods);
+    }
+
+    /**
+     * Returns false if none of the owner's methods are relocated by {@link #getMethodCallTarget}.
+     */
+    public boolean mayHaveRelocatedMethods(String owner) {
+        return relocatedMethods.containsKey(owner);
+    }
+
+    /**
+     * Returns false if no method of this name has a {@linkplain #getMethodDefaultImplementation default implementation}.
+     */
+    public boolean mayHaveDefaultImplementation(String methodName) {
+        return namesOfDefaultMethods.contains(methodName);
     }
 
     public MethodRef getMethodCallTarget(MethodRef original) {
-        return relocatedMethods.getOrDefault(original, original);
+        Map<MethodRef, MethodRef> methods = relocatedMethods.get(original.owner);
+        if (methods == null) {
+            return original;
+        }
+        return methods.getOrDefault(original, original);
     }
 
     public MethodRef getMethodDefaultImplementation(MethodRef interfaceMethod) {
-        MethodSignature signature = interfaceMethod.getSignature();
-        for (MethodInfo method : getDefaultMethods(Type.getObjectType(interfaceMethod.owner))) {
-            if (method.signature.equals(signature)) {
-                return method.getDefaultMethodImpl();
-            }
+        MethodInfo method = getMethodTable(Type.getObjectType(interfaceMethod.owner)).get(interfaceMethod.getSignature());
+        if (method != null && method.kind instanceof MethodKind.Default) {
+            return method.getDefaultMethodImpl();
         }
         return null;
     }
@@ -144,7 +281,41 @@ public class ClassHierarchyAnalyzer {
                 .collect(toList());
     }
 
+    /**
+     * Returns the default methods which need a delegate method in the class. Those
+     * which the class inherits unchanged from its superclass are left out, because
+     * the superclass, which is backported together with it, has the delegate method.
+     */
+    public List<MethodInfo> getDefaultMethodStubs(Type type) {
+        List<MethodInfo> stubs = defaultMethodStubs.get(type);
+        if (stubs == null) {
+            ClassInfo c = getClass(type);
+            Map<MethodSignature, MethodInfo> inherited = c.superclass != null && classes.containsKey(c.superclass)
+                    ? getMethodTable(c.superclass)
+                    : Collections.emptyMap();
+            stubs = Collections.unmodifiableList(getDefaultMethods(type).stream()
+                    .filter(m -> !m.equals(inherited.get(m.signature)))
+                    .collect(toList()));
+            defaultMethodStubs.put(type, stubs);
+        }
+        return stubs;
+    }
+
     public Collection<MethodInfo> getMethods(Type type) {
+        return getMethodTable(type).values();
+    }
+
+    private Map<MethodSignature, MethodInfo> getMethodTable(Type type) {
+        // not computeIfAbsent, because resolving the ancestors would modify the map recursively
+        Map<MethodSignature, MethodInfo> methods = methodTables.get(type);
+        if (methods == null) {
+            methods = Collections.unmodifiableMap(resolveMethodTable(type));
+            methodTables.put(type, methods);
+        }
+        return methods;
+    }
+
+    private Map<MethodSignature, MethodInfo> resolveMethodTable(Type type) {
         ClassInfo c = getClass(type);
         Map<MethodSignature, MethodInfo> methods = new HashMap<>();
 
@@ -169,7 +340,7 @@ public class ClassHierarchyAnalyzer {
         for (MethodInfo m : c.getMethods()) {
             methods.put(m.signature, m);
         }
-        return methods.values();
+        return methods;
     }
 
     private boolean isAlreadyInherited(MethodInfo subject, Map<MethodSignature, MethodInfo> existingMethods) {
@@ -179,10 +350,15 @@ public class ClassHierarchyAnalyzer {
 
     private Set<Type> getAllInterfaces(Type interfaceType) {
         assert getClass(interfaceType).isInterface() : "not interface: " + interfaceType;
-        HashSet<Type> results = new HashSet<>();
-        results.add(interfaceType);
-        for (Type parentInterface : getClass(interfaceType).getInterfaces()) {
-            results.addAll(getAllInterfaces(parentInterface));
+        Set<Type> results = allInterfaces.get(interfaceType);
+        if (results == null) {
+            results = new HashSet<>();
+            results.add(interfaceType);
+            for (Type parentInterface : getClass(interfaceType).getInterfaces()) {
+                results.addAll(getAllInterfaces(parentInterface));
+            }
+            results = Collections.unmodifiableSet(results);
+            allInterfaces.put(interfaceType, results);
         }
         return results;
     }
@@ -0,0 +1,225 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.interfaces;
+
+import org.objectweb.asm.Type;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Saves the information gathered by {@link ClassHierarchyAnalyzer} to a file,
+ * so that an incremental build which analyzes only the changed classes
+ * will still know about the interfaces and methods of the other classes.
+ */
+public class ClassHierarchyIndex {
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final byte IMPLEMENTED = 0;
+    private static final byte ABSTRACT = 1;
+    private static final byte DEFAULT = 2;
+
+    private final List<ClassInfo> classes;
+    private final Set<Type> removedClasses;
+
+    private ClassHierarchyIndex(List<ClassInfo> classes, Set<Type> removedClasses) {
+        this.classes = classes;
+        this.removedClasses = removedClasses;
+    }
+
+    /**
+     * The classes which were read from the index file.
+     */
+    public List<ClassInfo> getClasses() {
+        return Collections.unmodifiableList(classes);
+    }
+
+    /**
+     * The classes which were in the index file, but don't anymore exist in the input directory.
+     */
+    public Set<Type> getRemovedClasses() {
+        return Collections.unmodifiableSet(removedClasses);
+    }
+
+    /**
+     * Adds the classes from the index file to the analyzer, except the classes
+     * which don't anymore exist in the input directory.
+     */
+    public static ClassHierarchyIndex load(Path indexFile, Path inputDir, ClassHierarchyAnalyzer analyzer) throws IOException {
+        List<ClassInfo> classes = new ArrayList<>();
+        Set<Type> removedClasses = new LinkedHashSet<>();
+        ClassFiles classFiles = new ClassFiles(inputDir);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported index file format");
+            }
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+                ClassInfo c = readClass(in);
+                if (classFiles.exists(c.type)) {
+                    classes.add(c);
+                } else {
+                    removedClasses.add(c.type);
+                }
+            }
+            Map<MethodRef, MethodRef> relocatedMethods = new HashMap<>();
+            int relocatedCount = in.readInt();
+            for (int i = 0; i < relocatedCount; i++) {
+                MethodRef method = readMethodRef(in);
+                MethodRef target = readMethodRef(in);
+                if (!removedClasses.contains(Type.getObjectType(method.owner))) {
+                    relocatedMethods.put(method, target);
+                }
+            }
+
+            // add to the analyzer only after the whole file has been read successfully
+            for (ClassInfo c : classes) {
+                analyzer.addClass(c);
+            }
+            for (Map.Entry<MethodRef, MethodRef> entry : relocatedMethods.entrySet()) {
+                analyzer.addRelocatedMethod(entry.getKey(), entry.getValue());
+            }
+        }
+        return new ClassHierarchyIndex(classes, removedClasses);
+    }
+
+    public static void save(Path indexFile, Collection<ClassInfo> classes, Map<MethodRef, MethodRef> relocatedMethods) throws IOException {
+        Path dir = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(classes.size());
+                for (ClassInfo c : classes) {
+                    writeClass(out, c);
+                }
+                out.writeInt(relocatedMethods.size());
+                for (Map.Entry<MethodRef, MethodRef> entry : relocatedMethods.entrySet()) {
+                    writeMethodRef(out, entry.getKey());
+                    writeMethodRef(out, entry.getValue());
+                }
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static ClassInfo readClass(DataInput in) throws IOException {
+        int access = in.readInt();
+        Type type = Type.getObjectType(in.readUTF());
+        String superclass = in.readUTF();
+        List<Type> interfaces = new ArrayList<>();
+        int interfaceCount = in.readInt();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(Type.getObjectType(in.readUTF()));
+        }
+        ClassInfo c = new ClassInfo(access, type, superclass.isEmpty() ? null : Type.getObjectType(superclass), interfaces);
+        int referencedCount = in.readInt();
+        for (int i = 0; i < referencedCount; i++) {
+            c.addReferencedInterface(Type.getObjectType(in.readUTF()));
+        }
+
+        int methodCount = in.readInt();
+        for (int i = 0; i < methodCount; i++) {
+            MethodRef method = new MethodRef(type.getInternalName(), in.readUTF(), in.readUTF());
+            byte kind = in.readByte();
+            if (kind == IMPLEMENTED) {
+                c.addMethod(method, new MethodKind.Implemented());
+            } else if (kind == ABSTRACT) {
+                c.addMethod(method, new MethodKind.Abstract());
+            } else if (kind == DEFAULT) {
+                c.addMethod(method, new MethodKind.Default(readMethodRef(in)));
+            } else {
+                throw new IOException("Unknown method kind " + kind + " of " + method);
+            }
+        }
+        if (in.readBoolean()) {
+            c.enableCompanionClass();
+        }
+        return c;
+    }
+
+    private static void writeClass(DataOutput out, ClassInfo c) throws IOException {
+        out.writeInt(c.getAccess());
+        out.writeUTF(c.type.getInternalName());
+        out.writeUTF(c.superclass == null ? "" : c.superclass.getInternalName());
+        out.writeInt(c.getInterfaces().size());
+        for (Type iface : c.getInterfaces()) {
+            out.writeUTF(iface.getInternalName());
+        }
+        out.writeInt(c.getReferencedInterfaces().size());
+        for (Type iface : c.getReferencedInterfaces()) {
+            out.writeUTF(iface.getInternalName());
+        }
+
+        out.writeInt(c.getMethods().size());
+        for (MethodInfo method : c.getMethods()) {
+            out.writeUTF(method.signature.name);
+            out.writeUTF(method.signature.desc);
+            if (method.kind instanceof MethodKind.Implemented) {
+                out.writeByte(IMPLEMENTED);
+            } else if (method.kind instanceof MethodKind.Abstract) {
+                out.writeByte(ABSTRACT);
+            } else if (method.kind instanceof MethodKind.Default) {
+                out.writeByte(DEFAULT);
+                writeMethodRef(out, method.getDefaultMethodImpl());
+            } else {
+                throw new IllegalArgumentException("Unknown method kind: " + method);
+            }
+        }
+        out.writeBoolean(c.getCompanionClass().isPresent());
+    }
+
+    private static MethodRef readMethodRef(DataInput in) throws IOException {
+        return new MethodRef(in.readUTF(), in.readUTF(), in.readUTF());
+    }
+
+    private static void writeMethodRef(DataOutput out, MethodRef method) throws IOException {
+        out.writeUTF(method.owner);
+        out.writeUTF(method.name);
+        out.writeUTF(method.desc);
+    }
+
+    /**
+     * Lists each package directory once, instead of checking every class file
+     * separately, because the index usually has many classes in each package.
+     */
+    private static class ClassFiles {
+        private final Path inputDir;
+        private final Map<String, Set<String>> fileNamesByPackage = new HashMap<>();
+
+        ClassFiles(Path inputDir) {
+            this.inputDir = inputDir;
+        }
+
+        boolean exists(Type type) throws IOException {
+            String className = type.getInternalName();
+            int separator = className.lastIndexOf('/');
+            String packageName = separator < 0 ? "" : className.substring(0, separator);
+            Set<String> fileNames = fileNamesByPackage.get(packageName);
+            if (fileNames == null) {
+                fileNames = list(packageName.isEmpty() ? inputDir : inputDir.resolve(packageName));
+                fileNamesByPackage.put(packageName, fileNames);
+            }
+            return fileNames.contains(className.substring(separator + 1) + ".class");
+        }
+
+        private static Set<String> list(Path dir) throws IOException {
+            Set<String> fileNames = new HashSet<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    fileNames.add(file.getFileName().toString());
+                }
+            } catch (NoSuchFileException | NotDirectoryException e) {
+                // the whole package was removed
+            }
+            return fileNames;
+        }
+    }
+}
@@ -7,43 +7,108 @@ package net.orfjackal.retrolambda.interfaces;
 import net.orfjackal.retrolambda.util.Flags;
 import org.objectweb.asm.*;
 
+import java.io.IOException;
+import java.nio.file.*;
 import java.util.*;
 
 import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
 
 public class ClassInfo {
 
-    public final ClassReader reader;
+    // There may be hundreds of thousands of these, so they are kept compact:
+    // the types and method signatures are shared flyweights, and only the
+    // bytecode, instead of a ClassReader with its caches, is retained.
+    private static final Type[] NO_TYPES = new Type[0];
+
+    private final byte[] bytecode;
+    public final Path sourceFile;
     private final int access;
     public final Type type;
     public final Type superclass;
-    private final List<Type> interfaces = new ArrayList<>();
-    private final List<MethodInfo> methods = new ArrayList<>();
-    private Optional<Type> companionClass = Optional.empty();
+    private final Type[] interfaces;
+    private final List<MethodInfo> methods = new ArrayList<>(0);
+    private Set<Type> referencedInterfaces = Collections.emptySet();
+    private boolean hasCompanionClass = false;
 
     public ClassInfo() {
-        this.reader = null;
+        this.bytecode = null;
+        this.sourceFile = null;
         this.access = 0;
         this.type = null;
         this.superclass = null;
+        this.interfaces = NO_TYPES;
     }
 
     public ClassInfo(ClassReader cr) {
-        this.reader = cr;
+        this(cr, cr.b, null);
+    }
+
+    /**
+     * Does not keep the bytecode in memory. It will be read again from the source file when needed.
+     */
+    public ClassInfo(ClassReader cr, Path sourceFile) {
+        this(cr, null, sourceFile);
+    }
+
+    private ClassInfo(ClassReader cr, byte[] bytecode, Path sourceFile) {
+        this.bytecode = bytecode;
+        this.sourceFile = sourceFile;
         this.access = cr.getAccess();
-        this.type = Type.getObjectType(cr.getClassName());
+        this.type = Flyweights.objectType(cr.getClassName());
         if (cr.getSuperName() == null) {
             this.superclass = null;
         } else {
-            this.superclass = Type.getObjectType(cr.getSuperName());
+            this.superclass = Flyweights.objectType(cr.getSuperName());
+        }
+        String[] interfaces = cr.getInterfaces();
+        this.interfaces = interfaces.length == 0 ? NO_TYPES : new Type[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            this.interfaces[i] = Flyweights.objectType(interfaces[i]);
+        }
+    }
+
+    /**
+     * For classes whose information was read from a {@link ClassHierarchyIndex} instead of their bytecode.
+     */
+    public ClassInfo(int access, Type type, Type superclass, List<Type> interfaces) {
+        this.bytecode = null;
+        this.sourceFile = null;
+        this.access = access;
+        this.type = Flyweights.type(type);
+        this.superclass = superclass == null ? null : Flyweights.type(superclass);
+        this.interfaces = interfaces.isEmpty() ? NO_TYPES : new Type[interfaces.size()];
+        for (int i = 0; i < this.interfaces.length; i++) {
+            this.interfaces[i] = Flyweights.type(interfaces.get(i));
+        }
+    }
+
+    /**
+     * Returns false for the classes which were read from a {@link ClassHierarchyIndex}.
+     */
+    public boolean hasBytecode() {
+        return bytecode != null || sourceFile != null;
+    }
+
+    public byte[] getBytecode() throws IOException {
+        if (bytecode != null) {
+            return bytecode;
         }
-        for (String iface : cr.getInterfaces()) {
-            this.interfaces.add(Type.getObjectType(iface));
+        if (sourceFile == null) {
+            throw new IllegalStateException("The bytecode of " + type + " was not retained");
         }
+        return Files.readAllBytes(sourceFile);
+    }
+
+    public ClassReader getReader() throws IOException {
+        return new ClassReader(getBytecode());
+    }
+
+    public int getAccess() {
+        return access;
     }
 
     public List<Type> getInterfaces() {
-        return Collections.unmodifiableList(interfaces);
+        return Collections.unmodifiableList(Arrays.asList(interfaces));
     }
 
     public List<MethodInfo> getMethods() {
@@ -51,15 +116,32 @@ public class ClassInfo {
     }
 
     public void addMethod(MethodRef method, MethodKind kind) {
-        methods.add(new MethodInfo(method.getSignature(), Type.getObjectType(method.owner), kind));
+        methods.add(new MethodInfo(Flyweights.signature(method.name, method.desc), Flyweights.objectType(method.owner), kind));
+    }
+
+    /**
+     * The interfaces whose methods this class refers to, e.g. for calling their static methods.
+     */
+    public Set<Type> getReferencedInterfaces() {
+        return Collections.unmodifiableSet(referencedInterfaces);
+    }
+
+    public void addReferencedInterface(Type iface) {
+        if (referencedInterfaces.isEmpty()) {
+            referencedInterfaces = new LinkedHashSet<>();
+        }
+        referencedInterfaces.add(Flyweights.type(iface));
     }
 
     public Optional<Type> getCompanionClass() {
-        return companionClass;
+        if (!hasCompanionClass) {
+            return Optional.empty();
+        }
+        return Optional.of(Type.getObjectType(type.getInternalName() + "$"));
     }
 
     public void enableCompanionClass() {
-        this.companionClass = Optional.of(Type.getObjectType(type.getInternalName() + "$"));
+        this.hasCompanionClass = true;
     }
 
     public boolean isClass() {
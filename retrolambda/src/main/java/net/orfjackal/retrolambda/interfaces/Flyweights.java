@@ -0,0 +1,41 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.interfaces;
+
+import com.google.common.collect.*;
+import org.objectweb.asm.Type;
+
+/**
+ * Shares the equal instances of the values which are repeated throughout the class
+ * hierarchy, e.g. the names of the common supertypes and the signatures of the
+ * methods they declare. The instances are held weakly, so the ones which are no
+ * longer used by any class hierarchy, e.g. in an earlier build of the daemon,
+ * may be garbage collected.
+ */
+public final class Flyweights {
+
+    private static final Interner<String> strings = Interners.newWeakInterner();
+    private static final Interner<Type> types = Interners.newWeakInterner();
+    private static final Interner<MethodSignature> signatures = Interners.newWeakInterner();
+
+    private Flyweights() {
+    }
+
+    public static String string(String s) {
+        return strings.intern(s);
+    }
+
+    public static Type type(Type type) {
+        return types.intern(type);
+    }
+
+    public static Type objectType(String internalName) {
+        return type(Type.getObjectType(internalName));
+    }
+
+    public static MethodSignature signature(String name, String desc) {
+        return signatures.intern(new MethodSignature(string(name), string(desc)));
+    }
+}
@@ -30,20 +30,25 @@ public class UpdateRelocatedMethodInvocations extends ClassVisitor {
 
         @Override
         public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-            MethodRef method = new MethodRef(owner, name, desc);
-
             // change Interface.super.defaultMethod() calls to static calls on the companion class
             // TODO: move this inside getMethodCallTarget (also opcode, so must first change MethodRef to Handle)
-            if (opcode == Opcodes.INVOKESPECIAL) {
-                MethodRef impl = analyzer.getMethodDefaultImplementation(method);
+            if (opcode == Opcodes.INVOKESPECIAL && analyzer.mayHaveDefaultImplementation(name)) {
+                MethodRef impl = analyzer.getMethodDefaultImplementation(new MethodRef(owner, name, desc));
                 if (impl != null) {
                     opcode = Opcodes.INVOKESTATIC;
-                    method = impl;
+                    owner = impl.owner;
+                    name = impl.name;
+                    desc = impl.desc;
                 }
             }
 
-            method = analyzer.getMethodCallTarget(method);
-            super.visitMethodInsn(opcode, method.owner, method.name, method.desc, itf);
+            if (analyzer.mayHaveRelocatedMethods(owner)) {
+                MethodRef method = analyzer.getMethodCallTarget(new MethodRef(owner, name, desc));
+                owner = method.owner;
+                name = method.name;
+                desc = method.desc;
+            }
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
         }
     }
 }
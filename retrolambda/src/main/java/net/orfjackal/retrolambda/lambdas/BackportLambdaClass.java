@@ -15,21 +15,20 @@ public class BackportLambdaClass extends ClassVisitor {
 
     private String lambdaClass;
     private Type constructor;
-    private Handle implMethod;
-    private Handle accessMethod;
-    private LambdaFactoryMethod factoryMethod;
+    private final Handle implMethod;
+    private final Handle accessMethod;
+    private final LambdaFactoryMethod factoryMethod;
 
-    public BackportLambdaClass(ClassVisitor next) {
+    public BackportLambdaClass(ClassVisitor next, LambdaReificationContext context) {
         super(ASM5, next);
+        this.implMethod = context.getLambdaImplMethod();
+        this.accessMethod = context.getLambdaAccessMethod();
+        this.factoryMethod = context.getLambdaFactoryMethod();
     }
 
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
         lambdaClass = name;
-        LambdaReifier.setLambdaClass(lambdaClass);
-        implMethod = LambdaReifier.getLambdaImplMethod();
-        accessMethod = LambdaReifier.getLambdaAccessMethod();
-        factoryMethod = LambdaReifier.getLambdaFactoryMethod();
 
         if (superName.equals(LambdaNaming.MAGIC_LAMBDA_IMPL)) {
             superName = JAVA_LANG_OBJECT;
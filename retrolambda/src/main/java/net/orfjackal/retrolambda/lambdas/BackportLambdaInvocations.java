@@ -7,9 +7,8 @@ package net.orfjackal.retrolambda.lambdas;
 import net.orfjackal.retrolambda.util.*;
 import org.objectweb.asm.*;
 
-import java.lang.reflect.Field;
+import java.io.*;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.objectweb.asm.Opcodes.*;
 
@@ -17,34 +16,28 @@ public class BackportLambdaInvocations extends ClassVisitor {
 
     private int classAccess;
     private String className;
+    private int lambdaClassCount = 0;
     private final Map<Handle, Handle> lambdaAccessToImplMethods = new LinkedHashMap<>();
-
-    public BackportLambdaInvocations(ClassVisitor next) {
+    private final LambdaClassSaver lambdaClassSaver;
+    private final boolean lambdaSynthesisEnabled;
+
+    /**
+     * @param lambdaSynthesisEnabled whether to synthesize the lambda classes, instead of
+     *                               capturing the classes generated by the lambda metafactory
+     */
+    public BackportLambdaInvocations(ClassVisitor next, LambdaClassSaver lambdaClassSaver, boolean lambdaSynthesisEnabled) {
         super(ASM5, next);
+        this.lambdaClassSaver = lambdaClassSaver;
+        this.lambdaSynthesisEnabled = lambdaSynthesisEnabled;
     }
 
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-        resetLambdaClassSequenceNumber();
         this.classAccess = access;
         this.className = name;
         super.visit(version, access, name, signature, superName, interfaces);
     }
 
-    private static void resetLambdaClassSequenceNumber() {
-        try {
-            Field counterField = Class.forName("java.lang.invoke.InnerClassLambdaMetafactory").getDeclaredField("counter");
-            counterField.setAccessible(true);
-            AtomicInteger counter = (AtomicInteger) counterField.get(null);
-            counter.set(0);
-        } catch (Throwable t) {
-            // print to stdout to keep in sync with other log output
-            System.out.println("WARNING: Failed to start class numbering from one. Don't worry, it's cosmetic, " +
-                    "but please file a bug report and tell on which JDK version this happened.");
-            t.printStackTrace(System.out);
-        }
-    }
-
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
         if (LambdaNaming.isDeserializationHook(access, name, desc)) {
@@ -53,6 +46,12 @@ public class BackportLambdaInvocations extends ClassVisitor {
         return new InvokeDynamicInsnConverter(super.visitMethod(access, name, desc, signature, exceptions));
     }
 
+    private String nextLambdaClass() {
+        // same naming scheme as Java's, except that the numbering starts from one for each class
+        lambdaClassCount++;
+        return className + "$$Lambda$" + lambdaClassCount;
+    }
+
     Handle getLambdaAccessMethod(Handle implMethod) {
         if (!implMethod.getOwner().equals(className)) {
             return implMethod;
@@ -98,16 +97,50 @@ public class BackportLambdaInvocations extends ClassVisitor {
         }
 
         private void backportLambda(String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) {
-            Class<?> invoker = loadClass(className);
             Handle implMethod = (Handle) bsmArgs[1];
             Handle accessMethod = getLambdaAccessMethod(implMethod);
 
-            LambdaFactoryMethod factory = LambdaReifier.reifyLambdaClass(implMethod, accessMethod,
-                    invoker, invokedName, invokedType, bsm, bsmArgs);
+            LambdaFactoryMethod factory;
+            if (lambdaSynthesisEnabled) {
+                factory = LambdaReifier.synthesizeLambdaClass(nextLambdaClass(), implMethod, accessMethod,
+                        className, invokedName, invokedType, bsm, bsmArgs, isInterfaceMethod((Handle) bsmArgs[1]), lambdaClassSaver);
+            } else {
+                Class<?> invoker = loadClass(className);
+                factory = LambdaReifier.reifyLambdaClass(nextLambdaClass(), implMethod, accessMethod,
+                        invoker, invokedName, invokedType, bsm, bsmArgs, lambdaClassSaver);
+            }
             super.visitMethodInsn(INVOKESTATIC, factory.getOwner(), factory.getName(), factory.getDesc(), false);
         }
     }
 
+    private boolean isInterfaceMethod(Handle method) {
+        switch (method.getTag()) {
+            case H_INVOKEINTERFACE:
+                return true;
+            case H_INVOKESTATIC:
+            case H_INVOKESPECIAL:
+                if (method.getOwner().equals(className)) {
+                    return Flags.hasFlag(classAccess, ACC_INTERFACE);
+                }
+                return isInterface(method.getOwner());
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isInterface(String className) {
+        // reads only the class file's header, so that synthesizing lambdas doesn't need to load classes
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        try (InputStream in = cl.getResourceAsStream(className + ".class")) {
+            if (in != null) {
+                return Flags.hasFlag(new ClassReader(in).getAccess(), ACC_INTERFACE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return loadClass(className).isInterface();
+    }
+
     private static Class<?> loadClass(String className) {
         try {
             ClassLoader cl = Thread.currentThread().getContextClassLoader();
@@ -0,0 +1,130 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.*;
+
+/**
+ * The JDK counterparts of the ASM types used by the lambdas of one invoker class.
+ * A class usually has many lambdas which share the same bootstrap method and
+ * method types, so they are resolved only once. The instances are attached to
+ * the invoker class, so they are garbage collected together with its class loader.
+ * <p>
+ * The method types which refer only to the JDK's classes, and the handles to the
+ * lambda metafactory, are the same for every invoker, so they are shared by all
+ * invokers. They don't keep any class loader but the bootstrap class loader alive.
+ */
+class InvokerTypes {
+
+    private static final ConcurrentMap<String, MethodType> jdkMethodTypes = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Handle, MethodHandle> metafactoryHandles = new ConcurrentHashMap<>();
+
+    private static volatile Constructor<MethodHandles.Lookup> lookupConstructor;
+
+    private static final ClassValue<InvokerTypes> byInvoker = new ClassValue<InvokerTypes>() {
+        @Override
+        protected InvokerTypes computeValue(Class<?> invoker) {
+            return new InvokerTypes(invoker);
+        }
+    };
+
+    public final MethodHandles.Lookup lookup;
+    private final ClassLoader classLoader;
+    private final ConcurrentMap<String, MethodType> methodTypes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Handle, MethodHandle> methodHandles = new ConcurrentHashMap<>();
+
+    private InvokerTypes(Class<?> invoker) {
+        this.lookup = newLookup(invoker);
+        this.classLoader = invoker.getClassLoader();
+    }
+
+    public static InvokerTypes of(Class<?> invoker) {
+        return byInvoker.get(invoker);
+    }
+
+    private static MethodHandles.Lookup newLookup(Class<?> invoker) {
+        try {
+            Constructor<MethodHandles.Lookup> ctor = lookupConstructor;
+            if (ctor == null) {
+                ctor = MethodHandles.Lookup.class.getDeclaredConstructor(Class.class);
+                ctor.setAccessible(true);
+                lookupConstructor = ctor;
+            }
+            return ctor.newInstance(invoker);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Cannot create a MethodHandles.Lookup for " + invoker.getName() + "; " +
+                    "unexpected JDK implementation. Please enable lambda synthesis (retrolambda.synthesizeLambdas).", e);
+        }
+    }
+
+    public Object asmToJdkType(Object arg) throws Exception {
+        if (arg instanceof Type) {
+            return toMethodType((Type) arg);
+        } else if (arg instanceof Handle) {
+            return toMethodHandle((Handle) arg);
+        } else {
+            return arg;
+        }
+    }
+
+    public MethodType toMethodType(Type type) {
+        String descriptor = type.getDescriptor();
+        MethodType methodType = jdkMethodTypes.get(descriptor);
+        if (methodType == null) {
+            methodType = methodTypes.get(descriptor);
+        }
+        if (methodType == null) {
+            methodType = Types.toMethodType(type, classLoader);
+            (refersOnlyToJdkClasses(type) ? jdkMethodTypes : methodTypes).putIfAbsent(descriptor, methodType);
+        }
+        return methodType;
+    }
+
+    public MethodHandle toMethodHandle(Handle handle) throws Exception {
+        MethodHandle methodHandle = methodHandles.get(handle);
+        if (methodHandle == null) {
+            methodHandle = Types.toMethodHandle(handle, classLoader, lookup);
+            methodHandles.putIfAbsent(handle, methodHandle);
+        }
+        return methodHandle;
+    }
+
+    public MethodHandle toBootstrapMethodHandle(Handle bsm) throws Exception {
+        if (!bsm.getOwner().equals(LambdaNaming.LAMBDA_METAFACTORY)) {
+            return toMethodHandle(bsm);
+        }
+        // public and not caller sensitive, so the invoker's lookup doesn't matter
+        MethodHandle methodHandle = metafactoryHandles.get(bsm);
+        if (methodHandle == null) {
+            methodHandle = Types.toMethodHandle(bsm, classLoader, MethodHandles.publicLookup());
+            metafactoryHandles.putIfAbsent(bsm, methodHandle);
+        }
+        return methodHandle;
+    }
+
+    private static boolean refersOnlyToJdkClasses(Type methodType) {
+        // the java.* classes can only be loaded by the bootstrap class loader
+        if (!isJdkType(methodType.getReturnType())) {
+            return false;
+        }
+        for (Type type : methodType.getArgumentTypes()) {
+            if (!isJdkType(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isJdkType(Type type) {
+        if (type.getSort() == Type.ARRAY) {
+            type = type.getElementType();
+        }
+        return type.getSort() != Type.OBJECT || type.getInternalName().startsWith("java/");
+    }
+}
@@ -16,36 +16,54 @@ import java.nio.file.attribute.FileAttribute;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.Set;
 
+/**
+ * Captures the lambda classes by hooking into the lambda metafactory's option of
+ * dumping the generated classes to files. The hook is global, so it's installed
+ * by the first run which needs it and uninstalled after the last one is done.
+ */
 public class LambdaClassDumper implements AutoCloseable {
 
-    private final LambdaClassSaver lambdaClassSaver;
-    private Field dumperField;
+    private static final Object lock = new Object();
+    private static int installCount = 0;
+    private static Field dumperField;
 
-    public LambdaClassDumper(LambdaClassSaver lambdaClassSaver) {
-        this.lambdaClassSaver = lambdaClassSaver;
-    }
+    private boolean installed = false;
 
     public void install() {
-        try {
-            Class<?> mf = Class.forName("java.lang.invoke.InnerClassLambdaMetafactory");
-            dumperField = mf.getDeclaredField("dumper");
-            makeNonFinal(dumperField);
-            dumperField.setAccessible(true);
-
-            Path p = new VirtualPath("");
-            dumperField.set(null, newProxyClassesDumper(p));
-        } catch (Exception e) {
-            throw new IllegalStateException("Cannot initialize dumper; unexpected JDK implementation. " +
-                    "Please run Retrolambda using the Java agent (enable forking in the Maven plugin).", e);
+        synchronized (lock) {
+            if (installCount == 0) {
+                try {
+                    Class<?> mf = Class.forName("java.lang.invoke.InnerClassLambdaMetafactory");
+                    Field field = mf.getDeclaredField("dumper");
+                    makeNonFinal(field);
+                    field.setAccessible(true);
+
+                    Path p = new VirtualPath("");
+                    field.set(null, newProxyClassesDumper(p));
+                    dumperField = field;
+                } catch (Exception e) {
+                    throw new IllegalStateException("Cannot initialize dumper; unexpected JDK implementation. " +
+                            "Please run Retrolambda using the Java agent (enable forking in the Maven plugin).", e);
+                }
+            }
+            installCount++;
+            installed = true;
         }
     }
 
     public void uninstall() {
-        if (dumperField != null) {
-            try {
-                dumperField.set(null, null);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        synchronized (lock) {
+            if (!installed) {
+                return;
+            }
+            installed = false;
+            installCount--;
+            if (installCount == 0) {
+                try {
+                    dumperField.set(null, null);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
             }
         }
     }
@@ -142,7 +160,7 @@ public class LambdaClassDumper implements AutoCloseable {
         public void close() {
             String className = path.toString();
             className = className.substring(0, className.lastIndexOf(".class"));
-            lambdaClassSaver.saveIfLambda(className, os.toByteArray());
+            LambdaClassSaver.saveIfLambda(className, os.toByteArray());
         }
     }
 }
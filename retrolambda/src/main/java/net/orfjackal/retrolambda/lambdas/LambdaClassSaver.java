@@ -6,7 +6,9 @@ package net.orfjackal.retrolambda.lambdas;
 
 import net.orfjackal.retrolambda.Transformers;
 import net.orfjackal.retrolambda.files.ClassSaver;
-import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.*;
+
+import java.io.IOException;
 
 public class LambdaClassSaver {
 
@@ -18,21 +20,37 @@ public class LambdaClassSaver {
         this.transformers = transformers;
     }
 
-    public void saveIfLambda(String className, byte[] bytecode) {
-        if (LambdaReifier.isLambdaClassToReify(className)) {
-            reifyLambdaClass(className, bytecode);
+    /**
+     * Called by the hooks which capture the classes generated by the lambda metafactory.
+     * Saves the class with the saver of the run which is waiting for it, if any.
+     */
+    public static void saveIfLambda(String className, byte[] bytecode) {
+        LambdaReificationContext context = LambdaReifier.getReificationContext(className);
+        if (context != null) {
+            context.setCapturedClass(className);
+            context.getLambdaClassSaver().reifyLambdaClass(context, bytecode);
         }
     }
 
-    private void reifyLambdaClass(String className, byte[] bytecode) {
+    private void reifyLambdaClass(LambdaReificationContext context, byte[] bytecode) {
         try {
-            System.out.println("Saving lambda class: " + className);
-            saver.save(transformers.backportLambdaClass(new ClassReader(bytecode)));
+            saveLambdaClass(context, bytecode);
 
         } catch (Throwable t) {
             // print to stdout to keep in sync with other log output
-            System.out.println("ERROR: Failed to backport lambda class: " + className);
+            System.out.println("ERROR: Failed to backport lambda class: " + context.getLambdaClass());
             t.printStackTrace(System.out);
         }
     }
+
+    void saveLambdaClass(LambdaReificationContext context, byte[] bytecode) throws IOException {
+        System.out.println("Saving lambda class: " + context.getLambdaClass());
+        ClassReader reader = new ClassReader(bytecode);
+        if (!reader.getClassName().equals(context.getLambdaClass())) {
+            ClassWriter writer = new ClassWriter(0);
+            reader.accept(new RenameLambdaClass(writer, context.getLambdaClass()), 0);
+            reader = new ClassReader(writer.toByteArray());
+        }
+        saver.save(context.getLambdaClass(), transformers.backportLambdaClass(reader, context));
+    }
 }
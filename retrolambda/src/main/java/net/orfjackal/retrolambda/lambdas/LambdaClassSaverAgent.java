@@ -11,12 +11,6 @@ import java.security.ProtectionDomain;
 
 public class LambdaClassSaverAgent implements ClassFileTransformer {
 
-    private LambdaClassSaver lambdaClassSaver;
-
-    public void setLambdaClassSaver(LambdaClassSaver lambdaClassSaver) {
-        this.lambdaClassSaver = lambdaClassSaver;
-    }
-
     @Override
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
         if (className == null) {
@@ -24,9 +18,7 @@ public class LambdaClassSaverAgent implements ClassFileTransformer {
             // but we can read it from the bytecode where the name still exists.
             className = new ClassReader(classfileBuffer).getClassName();
         }
-        if (lambdaClassSaver != null) {
-            lambdaClassSaver.saveIfLambda(className, classfileBuffer);
-        }
+        LambdaClassSaver.saveIfLambda(className, classfileBuffer);
         return null;
     }
 }
@@ -0,0 +1,195 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates the same kind of lambda classes as Java 8's InnerClassLambdaMetafactory,
+ * but based only on the arguments of the {@code invokedynamic} instruction, so that
+ * no classes need to be loaded for calling the lambda metafactory.
+ * <p>
+ * The serialization hooks and the {@code get$Lambda} factory method are not generated,
+ * because {@link BackportLambdaClass} would anyways replace them.
+ */
+public class LambdaClassSynthesizer {
+
+    // see java.lang.invoke.LambdaMetafactory
+    private static final int FLAG_SERIALIZABLE = 1 << 0;
+    private static final int FLAG_MARKERS = 1 << 1;
+    private static final int FLAG_BRIDGES = 1 << 2;
+
+    private static final String JAVA_LANG_OBJECT = "java/lang/Object";
+    private static final String JAVA_IO_SERIALIZABLE = "java/io/Serializable";
+
+    private final String lambdaClass;
+    private final String samMethodName;
+    private final Type invokedType;
+    private final Type samMethodType;
+    private final Handle implMethod;
+    private final boolean implIsInterfaceMethod;
+    private final Type instantiatedMethodType;
+    private final List<String> interfaces = new ArrayList<>();
+    private final List<Type> bridges = new ArrayList<>();
+
+    private LambdaClassSynthesizer(String lambdaClass, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs,
+                                   boolean implIsInterfaceMethod) {
+        this.lambdaClass = lambdaClass;
+        this.samMethodName = invokedName;
+        this.invokedType = invokedType;
+        this.samMethodType = (Type) bsmArgs[0];
+        this.implMethod = (Handle) bsmArgs[1];
+        this.implIsInterfaceMethod = implIsInterfaceMethod;
+        this.instantiatedMethodType = (Type) bsmArgs[2];
+        interfaces.add(invokedType.getReturnType().getInternalName());
+
+        if (bsm.getName().equals("altMetafactory")) {
+            int argIndex = 3;
+            int flags = (Integer) bsmArgs[argIndex++];
+            if ((flags & FLAG_MARKERS) != 0) {
+                int markerCount = (Integer) bsmArgs[argIndex++];
+                for (int i = 0; i < markerCount; i++) {
+                    addInterface(((Type) bsmArgs[argIndex++]).getInternalName());
+                }
+            }
+            if ((flags & FLAG_BRIDGES) != 0) {
+                int bridgeCount = (Integer) bsmArgs[argIndex++];
+                for (int i = 0; i < bridgeCount; i++) {
+                    bridges.add((Type) bsmArgs[argIndex++]);
+                }
+            }
+            if ((flags & FLAG_SERIALIZABLE) != 0) {
+                addInterface(JAVA_IO_SERIALIZABLE);
+            }
+        } else if (!bsm.getName().equals("metafactory")) {
+            throw new IllegalArgumentException("Unsupported bootstrap method: " + bsm);
+        }
+    }
+
+    private void addInterface(String type) {
+        if (!interfaces.contains(type)) {
+            interfaces.add(type);
+        }
+    }
+
+    /**
+     * @param implIsInterfaceMethod whether the owner of the implementation method is an interface,
+     *                              which for static and private methods cannot be seen from the handle
+     */
+    public static byte[] synthesize(String lambdaClass, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs,
+                                    boolean implIsInterfaceMethod) {
+        return new LambdaClassSynthesizer(lambdaClass, invokedName, invokedType, bsm, bsmArgs, implIsInterfaceMethod).generate();
+    }
+
+    private byte[] generate() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_SUPER | ACC_FINAL | ACC_SYNTHETIC,
+                lambdaClass, null, JAVA_LANG_OBJECT, interfaces.toArray(new String[interfaces.size()]));
+
+        Type[] capturedArgs = invokedType.getArgumentTypes();
+        for (int i = 0; i < capturedArgs.length; i++) {
+            FieldVisitor fv = cw.visitField(ACC_PRIVATE | ACC_FINAL, argName(i), capturedArgs[i].getDescriptor(), null, null);
+            fv.visitEnd();
+        }
+        generateConstructor(cw, capturedArgs);
+        generateForwardingMethod(cw, samMethodType);
+        for (Type bridge : bridges) {
+            if (!bridge.equals(samMethodType)) {
+                generateForwardingMethod(cw, bridge);
+            }
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static String argName(int i) {
+        return "arg$" + (i + 1);
+    }
+
+    private void generateConstructor(ClassVisitor cv, Type[] capturedArgs) {
+        MethodVisitor mv = cv.visitMethod(ACC_PRIVATE, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, capturedArgs), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, JAVA_LANG_OBJECT, "<init>", "()V", false);
+        int varIndex = 1;
+        for (int i = 0; i < capturedArgs.length; i++) {
+            Type arg = capturedArgs[i];
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(arg.getOpcode(ILOAD), varIndex);
+            varIndex += arg.getSize();
+            mv.visitFieldInsn(PUTFIELD, lambdaClass, argName(i), arg.getDescriptor());
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+        mv.visitEnd();
+    }
+
+    private void generateForwardingMethod(ClassVisitor cv, Type methodType) {
+        MethodVisitor mv = cv.visitMethod(ACC_PUBLIC, samMethodName, methodType.getDescriptor(), null, null);
+        mv.visitCode();
+
+        if (implMethod.getTag() == H_NEWINVOKESPECIAL) {
+            mv.visitTypeInsn(NEW, implMethod.getOwner());
+            mv.visitInsn(DUP);
+        }
+
+        Type[] capturedArgs = invokedType.getArgumentTypes();
+        for (int i = 0; i < capturedArgs.length; i++) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, lambdaClass, argName(i), capturedArgs[i].getDescriptor());
+        }
+
+        Type[] samArgs = methodType.getArgumentTypes();
+        Type[] instantiatedArgs = instantiatedMethodType.getArgumentTypes();
+        Type[] implArgs = Type.getArgumentTypes(implMethod.getDesc());
+        int varIndex = 1;
+        int firstArg = 0;
+        if (isInstanceMethod(implMethod) && capturedArgs.length == 0) {
+            // the receiver is the first argument of the functional interface method
+            Type receiver = samArgs[0];
+            mv.visitVarInsn(receiver.getOpcode(ILOAD), varIndex);
+            varIndex += receiver.getSize();
+            TypeConversions.convertType(mv, receiver, Type.getObjectType(implMethod.getOwner()), instantiatedArgs[0]);
+            firstArg = 1;
+        }
+        int argOffset = implArgs.length - samArgs.length;
+        for (int i = firstArg; i < samArgs.length; i++) {
+            Type arg = samArgs[i];
+            mv.visitVarInsn(arg.getOpcode(ILOAD), varIndex);
+            varIndex += arg.getSize();
+            TypeConversions.convertType(mv, arg, implArgs[argOffset + i], instantiatedArgs[i]);
+        }
+
+        mv.visitMethodInsn(Handles.getOpcode(implMethod), implMethod.getOwner(), implMethod.getName(), implMethod.getDesc(),
+                implIsInterfaceMethod);
+
+        Type implReturnType = implMethod.getTag() == H_NEWINVOKESPECIAL
+                ? Type.getObjectType(implMethod.getOwner())
+                : Type.getReturnType(implMethod.getDesc());
+        Type returnType = methodType.getReturnType();
+        if (returnType.getSort() == Type.VOID) {
+            if (implReturnType.getSort() != Type.VOID) {
+                mv.visitInsn(implReturnType.getSize() == 2 ? POP2 : POP);
+            }
+        } else {
+            TypeConversions.convertType(mv, implReturnType, returnType, returnType);
+        }
+        mv.visitInsn(returnType.getOpcode(IRETURN));
+        mv.visitMaxs(-1, -1); // rely on ClassWriter.COMPUTE_MAXS
+        mv.visitEnd();
+    }
+
+    private static boolean isInstanceMethod(Handle handle) {
+        int tag = handle.getTag();
+        return tag == H_INVOKEVIRTUAL
+                || tag == H_INVOKESPECIAL
+                || tag == H_INVOKEINTERFACE;
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+/**
+ * State of reifying one lambda expression, shared between the class which
+ * contains the {@code invokedynamic} instruction and the code which captures
+ * the lambda class that was generated for it.
+ */
+public class LambdaReificationContext {
+
+    private final String invoker;
+    private final String lambdaClass;
+    private final Handle lambdaImplMethod;
+    private final Handle lambdaAccessMethod;
+    private final Type invokedType;
+    private final LambdaClassSaver lambdaClassSaver;
+    private volatile String capturedClass;
+
+    public LambdaReificationContext(String invoker, String lambdaClass, Handle lambdaImplMethod, Handle lambdaAccessMethod, Type invokedType,
+                                    LambdaClassSaver lambdaClassSaver) {
+        this.invoker = invoker;
+        this.lambdaClass = lambdaClass;
+        this.lambdaImplMethod = lambdaImplMethod;
+        this.lambdaAccessMethod = lambdaAccessMethod;
+        this.invokedType = invokedType;
+        this.lambdaClassSaver = lambdaClassSaver;
+    }
+
+    public String getInvoker() {
+        return invoker;
+    }
+
+    /**
+     * The name which the backported lambda class will have. It may differ from the name
+     * of the class which was generated by Java, because Java numbers the lambda classes
+     * globally, but we number them per invoker class.
+     */
+    public String getLambdaClass() {
+        return lambdaClass;
+    }
+
+    public Handle getLambdaImplMethod() {
+        return lambdaImplMethod;
+    }
+
+    public Handle getLambdaAccessMethod() {
+        return lambdaAccessMethod;
+    }
+
+    /**
+     * The saver of the Retrolambda run which the lambda class belongs to.
+     */
+    public LambdaClassSaver getLambdaClassSaver() {
+        return lambdaClassSaver;
+    }
+
+    public LambdaFactoryMethod getLambdaFactoryMethod() {
+        return new LambdaFactoryMethod(lambdaClass, invokedType);
+    }
+
+    public void setCapturedClass(String capturedClass) {
+        this.capturedClass = capturedClass;
+    }
+
+    public String getCapturedClass() {
+        return capturedClass;
+    }
+
+    public boolean isCaptured() {
+        return capturedClass != null;
+    }
+}
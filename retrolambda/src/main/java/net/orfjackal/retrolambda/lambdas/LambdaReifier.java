@@ -4,115 +4,101 @@
 
 package net.orfjackal.retrolambda.lambdas;
 
+import com.google.common.util.concurrent.Striped;
 import org.objectweb.asm.*;
 
 import java.lang.invoke.*;
-import java.lang.reflect.Constructor;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
 
 public class LambdaReifier {
 
-    // These globals are used for communicating with the Java agent which
-    // is spying on the LambdaMetafactory's dynamically generated bytecode.
-    // We expect only one class being processed at a time, so it should
-    // be an error if these collections contain more than one element.
-    private static final BlockingDeque<Handle> currentLambdaImplMethod = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<Handle> currentLambdaAccessMethod = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<Class<?>> currentInvoker = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<Type> currentInvokedType = new LinkedBlockingDeque<>(1);
-    private static final BlockingDeque<String> currentLambdaClass = new LinkedBlockingDeque<>(1);
-
-    public static LambdaFactoryMethod reifyLambdaClass(Handle lambdaImplMethod, Handle lambdaAccessMethod,
-                                                       Class<?> invoker, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) {
+    // The Java agent, which is spying on the LambdaMetafactory's dynamically
+    // generated bytecode, uses this to find the reification which caused the
+    // lambda class to be generated. The name of the lambda class starts with
+    // the name of its invoker, so the reifications in progress are keyed by
+    // the invoker. Many classes' lambdas can be reified concurrently, but the
+    // lambdas of classes with the same name, e.g. in Retrolambda runs of two
+    // Maven modules, must wait for their turn.
+    private static final ConcurrentMap<String, LambdaReificationContext> reificationsByInvoker = new ConcurrentHashMap<>();
+    private static final Striped<Lock> captureLocks = Striped.lock(64);
+
+    public static LambdaFactoryMethod reifyLambdaClass(String lambdaClass, Handle lambdaImplMethod, Handle lambdaAccessMethod,
+                                                       Class<?> invoker, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs,
+                                                       LambdaClassSaver lambdaClassSaver) {
+        String invokerName = Type.getInternalName(invoker);
+        LambdaReificationContext context = new LambdaReificationContext(invokerName, lambdaClass, lambdaImplMethod, lambdaAccessMethod, invokedType, lambdaClassSaver);
+        Lock captureLock = captureLocks.get(invokerName);
+        captureLock.lock();
+        if (reificationsByInvoker.putIfAbsent(invokerName, context) != null) {
+            captureLock.unlock();
+            throw new IllegalStateException("Already reifying a lambda of " + invokerName);
+        }
         try {
-            setLambdaImplMethod(lambdaImplMethod);
-            setLambdaAccessMethod(lambdaAccessMethod);
-            setInvoker(invoker);
-            setInvokedType(invokedType);
-
             // Causes the lambda class to be loaded. Retrolambda's Java agent
-            // will detect it, save it to a file and tell us (via the globals
-            // in this class) that what the name of the lambda class was.
+            // will detect it, look up this context based on the class name,
+            // save the class to a file and mark the context as captured.
             callBootstrapMethod(invoker, invokedName, invokedType, bsm, bsmArgs);
 
-            return getLambdaFactoryMethod();
+            if (!context.isCaptured()) {
+                throw new IllegalStateException("Lambda class was not captured: " + lambdaClass);
+            }
+            return context.getLambdaFactoryMethod();
 
         } catch (Throwable t) {
             throw new RuntimeException(t);
         } finally {
-            resetGlobals();
+            reificationsByInvoker.remove(invokerName, context);
+            captureLock.unlock();
         }
     }
 
-    private static void setLambdaImplMethod(Handle lambdaImplMethod) {
-        currentLambdaImplMethod.push(lambdaImplMethod);
-    }
-
-    private static void setLambdaAccessMethod(Handle lambdaAccessMethod) {
-        currentLambdaAccessMethod.push(lambdaAccessMethod);
-    }
-
-    private static void setInvoker(Class<?> lambdaInvoker) {
-        currentInvoker.push(lambdaInvoker);
-    }
-
-    private static void setInvokedType(Type invokedType) {
-        currentInvokedType.push(invokedType);
-    }
-
-    public static void setLambdaClass(String lambdaClass) {
-        currentLambdaClass.push(lambdaClass);
-    }
-
-    public static boolean isLambdaClassToReify(String className) {
-        Class<?> invoker = currentInvoker.peekFirst();
-        return invoker != null
-                && className.startsWith(Type.getInternalName(invoker))
-                && LambdaNaming.LAMBDA_CLASS.matcher(className).matches();
-    }
-
-    public static Handle getLambdaImplMethod() {
-        return currentLambdaImplMethod.getFirst();
-    }
-
-    public static Handle getLambdaAccessMethod() {
-        return currentLambdaAccessMethod.getFirst();
-    }
+    public static LambdaFactoryMethod synthesizeLambdaClass(String lambdaClass, Handle lambdaImplMethod, Handle lambdaAccessMethod,
+                                                            String invoker, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs,
+                                                            boolean implIsInterfaceMethod, LambdaClassSaver lambdaClassSaver) {
+        LambdaReificationContext context = new LambdaReificationContext(invoker, lambdaClass, lambdaImplMethod, lambdaAccessMethod, invokedType, lambdaClassSaver);
+        try {
+            // Generates the lambda class from the bootstrap method arguments,
+            // so unlike the above, there is no need to load the invoker.
+            byte[] bytecode = LambdaClassSynthesizer.synthesize(lambdaClass, invokedName, invokedType, bsm, bsmArgs, implIsInterfaceMethod);
+            context.setCapturedClass(lambdaClass);
+            lambdaClassSaver.saveLambdaClass(context, bytecode);
+            return context.getLambdaFactoryMethod();
 
-    public static LambdaFactoryMethod getLambdaFactoryMethod() {
-        String lambdaClass = currentLambdaClass.getFirst();
-        Type invokedType = currentInvokedType.getFirst();
-        return new LambdaFactoryMethod(lambdaClass, invokedType);
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
     }
 
-    private static void resetGlobals() {
-        currentLambdaImplMethod.clear();
-        currentLambdaAccessMethod.clear();
-        currentInvoker.clear();
-        currentInvokedType.clear();
-        currentLambdaClass.clear();
+    /**
+     * Returns the reification in progress which the given class was generated for,
+     * or null if the class is not a lambda class we are waiting for.
+     */
+    public static LambdaReificationContext getReificationContext(String className) {
+        if (!LambdaNaming.LAMBDA_CLASS.matcher(className).matches()) {
+            return null;
+        }
+        String invoker = className.substring(0, className.lastIndexOf("$$Lambda$"));
+        LambdaReificationContext context = reificationsByInvoker.get(invoker);
+        if (context == null || context.isCaptured()) {
+            return null;
+        }
+        return context;
     }
 
     private static CallSite callBootstrapMethod(Class<?> invoker, String invokedName, Type invokedType, Handle bsm, Object[] bsmArgs) throws Throwable {
-        ClassLoader cl = invoker.getClassLoader();
-        MethodHandles.Lookup caller = getLookup(invoker);
+        InvokerTypes types = InvokerTypes.of(invoker);
 
         List<Object> args = new ArrayList<>();
-        args.add(caller);
+        args.add(types.lookup);
         args.add(invokedName);
-        args.add(Types.toMethodType(invokedType, cl));
+        args.add(types.toMethodType(invokedType));
         for (Object arg : bsmArgs) {
-            args.add(Types.asmToJdkType(arg, cl, caller));
+            args.add(types.asmToJdkType(arg));
         }
 
-        MethodHandle bootstrapMethod = Types.toMethodHandle(bsm, cl, caller);
+        MethodHandle bootstrapMethod = types.toBootstrapMethodHandle(bsm);
         return (CallSite) bootstrapMethod.invokeWithArguments(args);
     }
-
-    private static MethodHandles.Lookup getLookup(Class<?> targetClass) throws Exception {
-        Constructor<MethodHandles.Lookup> ctor = MethodHandles.Lookup.class.getDeclaredConstructor(Class.class);
-        ctor.setAccessible(true);
-        return ctor.newInstance(targetClass);
-    }
 }
@@ -0,0 +1,62 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+import static org.objectweb.asm.Opcodes.ASM5;
+
+public class RenameLambdaClass extends ClassVisitor {
+
+    private final String newName;
+    private String oldName;
+
+    public RenameLambdaClass(ClassVisitor next, String newName) {
+        super(ASM5, next);
+        this.newName = newName;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.oldName = name;
+        super.visit(version, access, newName, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        return new RenameSelfReferences(super.visitMethod(access, name, renameInDesc(desc), signature, exceptions));
+    }
+
+    private String rename(String owner) {
+        return owner.equals(oldName) ? newName : owner;
+    }
+
+    private String renameInDesc(String desc) {
+        return desc.replace("L" + oldName + ";", "L" + newName + ";");
+    }
+
+
+    private class RenameSelfReferences extends MethodVisitor {
+
+        public RenameSelfReferences(MethodVisitor next) {
+            super(ASM5, next);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            super.visitTypeInsn(opcode, rename(type));
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            super.visitFieldInsn(opcode, rename(owner), name, desc);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            super.visitMethodInsn(opcode, rename(owner), name, renameInDesc(desc), itf);
+        }
+    }
+}
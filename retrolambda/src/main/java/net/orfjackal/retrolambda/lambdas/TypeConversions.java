@@ -0,0 +1,163 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.objectweb.asm.*;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The widening, boxing, unboxing and casting conversions which the lambda classes
+ * generated by Java 8 do for the arguments and return values of the functional
+ * interface method (see java.lang.invoke.TypeConvertingMethodAdapter).
+ */
+public class TypeConversions {
+
+    private static final Type OBJECT_TYPE = Type.getObjectType("java/lang/Object");
+    private static final Type NUMBER_TYPE = Type.getObjectType("java/lang/Number");
+
+    private static final Map<Type, Type> boxedToPrimitive = new HashMap<>();
+    private static final Map<Type, Type> primitiveToBoxed = new HashMap<>();
+
+    static {
+        box(Type.BOOLEAN_TYPE, "java/lang/Boolean");
+        box(Type.CHAR_TYPE, "java/lang/Character");
+        box(Type.BYTE_TYPE, "java/lang/Byte");
+        box(Type.SHORT_TYPE, "java/lang/Short");
+        box(Type.INT_TYPE, "java/lang/Integer");
+        box(Type.FLOAT_TYPE, "java/lang/Float");
+        box(Type.LONG_TYPE, "java/lang/Long");
+        box(Type.DOUBLE_TYPE, "java/lang/Double");
+    }
+
+    private static void box(Type primitive, String boxed) {
+        boxedToPrimitive.put(Type.getObjectType(boxed), primitive);
+        primitiveToBoxed.put(primitive, Type.getObjectType(boxed));
+    }
+
+    /**
+     * Converts the value on top of the stack from {@code arg} type to {@code target} type.
+     * The {@code functional} type is the type that the value has according to the
+     * instantiated method type, i.e. it is used for casting erased generic types.
+     */
+    public static void convertType(MethodVisitor mv, Type arg, Type target, Type functional) {
+        if (arg.equals(target) && arg.equals(functional)) {
+            return;
+        }
+        if (arg.getSort() == Type.VOID || target.getSort() == Type.VOID) {
+            return;
+        }
+        if (isPrimitive(arg)) {
+            if (isPrimitive(target)) {
+                widen(mv, arg, target);
+            } else {
+                Type primitiveTarget = boxedToPrimitive.get(target);
+                if (primitiveTarget != null) {
+                    // the target is a boxed primitive type, widen to get there before boxing
+                    widen(mv, arg, primitiveTarget);
+                    box(mv, primitiveTarget);
+                } else {
+                    box(mv, arg);
+                    cast(mv, primitiveToBoxed.get(arg), target);
+                }
+            }
+        } else {
+            Type source;
+            if (isPrimitive(functional)) {
+                source = arg;
+            } else {
+                // cast to convert to a possibly more specific type, and to fail fast on invalid arguments
+                source = functional;
+                cast(mv, arg, source);
+            }
+            if (isPrimitive(target)) {
+                Type primitiveSource = boxedToPrimitive.get(source);
+                if (primitiveSource != null) {
+                    if (isNumber(primitiveSource)) {
+                        unbox(mv, source, target);
+                    } else {
+                        // Character or Boolean
+                        unbox(mv, source, primitiveSource);
+                        widen(mv, primitiveSource, target);
+                    }
+                } else {
+                    // the source is a reference type which is assumed to be a supertype of the target
+                    Type intermediate = isNumber(target) ? NUMBER_TYPE : primitiveToBoxed.get(target);
+                    cast(mv, source, intermediate);
+                    unbox(mv, intermediate, target);
+                }
+            } else {
+                cast(mv, source, target);
+            }
+        }
+    }
+
+    private static boolean isPrimitive(Type type) {
+        return primitiveToBoxed.containsKey(type);
+    }
+
+    private static boolean isNumber(Type primitive) {
+        return primitive.getSort() != Type.BOOLEAN
+                && primitive.getSort() != Type.CHAR;
+    }
+
+    private static void widen(MethodVisitor mv, Type source, Type target) {
+        int opcode = wideningOpcode(source, target);
+        if (opcode != NOP) {
+            mv.visitInsn(opcode);
+        }
+    }
+
+    private static int wideningOpcode(Type source, Type target) {
+        switch (source.getSort()) {
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.CHAR:
+            case Type.INT:
+                switch (target.getSort()) {
+                    case Type.LONG:
+                        return I2L;
+                    case Type.FLOAT:
+                        return I2F;
+                    case Type.DOUBLE:
+                        return I2D;
+                }
+                break;
+            case Type.LONG:
+                switch (target.getSort()) {
+                    case Type.FLOAT:
+                        return L2F;
+                    case Type.DOUBLE:
+                        return L2D;
+                }
+                break;
+            case Type.FLOAT:
+                if (target.getSort() == Type.DOUBLE) {
+                    return F2D;
+                }
+                break;
+        }
+        return NOP;
+    }
+
+    private static void box(MethodVisitor mv, Type primitive) {
+        Type boxed = primitiveToBoxed.get(primitive);
+        mv.visitMethodInsn(INVOKESTATIC, boxed.getInternalName(), "valueOf",
+                Type.getMethodDescriptor(boxed, primitive), false);
+    }
+
+    private static void unbox(MethodVisitor mv, Type owner, Type primitive) {
+        mv.visitMethodInsn(INVOKEVIRTUAL, owner.getInternalName(), primitive.getClassName() + "Value",
+                Type.getMethodDescriptor(primitive), false);
+    }
+
+    private static void cast(MethodVisitor mv, Type source, Type target) {
+        if (!source.equals(target) && !target.equals(OBJECT_TYPE)) {
+            mv.visitTypeInsn(CHECKCAST, target.getInternalName());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Helpers for looking at a class's constant pool without visiting the whole class.
+ */
+public class ConstantPool {
+
+    // see the JVM specification, section 4.4
+    public static final int METHODREF = 10;
+    public static final int INTERFACE_METHODREF = 11;
+    public static final int METHOD_HANDLE = 15;
+    public static final int INVOKE_DYNAMIC = 18;
+
+    /**
+     * Returns the tag of the constant pool item, or 0 if there is no item
+     * at that index (i.e. index 0 and the second slot of long and double items).
+     */
+    public static int getTag(ClassReader cr, int item) {
+        int offset = cr.getItem(item);
+        if (offset == 0) {
+            return 0;
+        }
+        return cr.b[offset - 1];
+    }
+
+    /**
+     * Returns the owner of a field or method reference item.
+     */
+    public static String getOwner(ClassReader cr, int item, char[] buf) {
+        return cr.readClass(cr.getItem(item), buf);
+    }
+}
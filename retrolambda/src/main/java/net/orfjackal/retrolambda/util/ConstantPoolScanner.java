@@ -0,0 +1,219 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import net.orfjackal.retrolambda.lambdas.LambdaNaming;
+import org.objectweb.asm.ClassReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Finds out which kinds of backporting a class needs, by reading its constant pool
+ * and bytecode directly from the class file. This is much faster than visiting the
+ * class with ASM, and doesn't allocate any objects.
+ */
+public class ConstantPoolScanner {
+
+    /**
+     * The class has {@code invokedynamic} instructions which call the lambda metafactory.
+     */
+    public static final int LAMBDAS = 1;
+
+    /**
+     * The class has {@code invokestatic} or {@code invokespecial} instructions on interface methods.
+     */
+    public static final int INTERFACE_METHOD_CALLS = 1 << 1;
+
+    /**
+     * The class calls {@link Throwable#addSuppressed}.
+     */
+    public static final int ADD_SUPPRESSED = 1 << 2;
+
+    private static final byte[] LAMBDA_METAFACTORY = ascii(LambdaNaming.LAMBDA_METAFACTORY);
+    private static final byte[] THROWABLE = ascii("java/lang/Throwable");
+    private static final byte[] ADD_SUPPRESSED_NAME = ascii("addSuppressed");
+    private static final byte[] CODE_ATTRIBUTE = ascii("Code");
+
+    // the opcodes which are missing from org.objectweb.asm.Opcodes
+    private static final int LDC_W = 19;
+    private static final int LDC2_W = 20;
+    private static final int WIDE = 196;
+    private static final int GOTO_W = 200;
+    private static final int JSR_W = 201;
+
+    private static final byte[] INSTRUCTION_LENGTHS = new byte[256];
+
+    static {
+        Arrays.fill(INSTRUCTION_LENGTHS, (byte) 1);
+        setInstructionLength(2, BIPUSH, LDC, ILOAD, LLOAD, FLOAD, DLOAD, ALOAD,
+                ISTORE, LSTORE, FSTORE, DSTORE, ASTORE, RET, NEWARRAY);
+        setInstructionLength(3, SIPUSH, LDC_W, LDC2_W, IINC, GOTO, JSR,
+                GETSTATIC, PUTSTATIC, GETFIELD, PUTFIELD, INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC,
+                NEW, ANEWARRAY, CHECKCAST, INSTANCEOF, IFNULL, IFNONNULL);
+        for (int opcode = IFEQ; opcode <= IF_ACMPNE; opcode++) {
+            setInstructionLength(3, opcode);
+        }
+        setInstructionLength(4, MULTIANEWARRAY);
+        setInstructionLength(5, INVOKEINTERFACE, INVOKEDYNAMIC, GOTO_W, JSR_W);
+    }
+
+    private static void setInstructionLength(int length, int... opcodes) {
+        for (int opcode : opcodes) {
+            INSTRUCTION_LENGTHS[opcode] = (byte) length;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns a bitmask of {@link #LAMBDAS}, {@link #INTERFACE_METHOD_CALLS} and {@link #ADD_SUPPRESSED}.
+     */
+    public static int scan(ClassReader cr) {
+        int features = 0;
+        boolean hasInvokeDynamic = false;
+        boolean hasLambdaMetafactory = false;
+        boolean hasInterfaceMethodrefs = false;
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            switch (ConstantPool.getTag(cr, i)) {
+                case ConstantPool.INVOKE_DYNAMIC:
+                    hasInvokeDynamic = true;
+                    break;
+                case ConstantPool.METHOD_HANDLE:
+                    // reference_kind is followed by reference_index
+                    if (ownerEquals(cr, cr.readUnsignedShort(cr.getItem(i) + 1), LAMBDA_METAFACTORY)) {
+                        hasLambdaMetafactory = true;
+                    }
+                    break;
+                case ConstantPool.INTERFACE_METHODREF:
+                    hasInterfaceMethodrefs = true;
+                    break;
+                case ConstantPool.METHODREF:
+                    if (nameEquals(cr, i, ADD_SUPPRESSED_NAME) && ownerEquals(cr, i, THROWABLE)) {
+                        features |= ADD_SUPPRESSED;
+                    }
+                    break;
+            }
+        }
+        if (hasInvokeDynamic && hasLambdaMetafactory) {
+            features |= LAMBDAS;
+        }
+        // most interface methods are called with invokeinterface, which needs no changes,
+        // so we must look at the instructions to know how the interface methods are called
+        if (hasInterfaceMethodrefs && hasInterfaceMethodCalls(cr)) {
+            features |= INTERFACE_METHOD_CALLS;
+        }
+        return features;
+    }
+
+    public static boolean hasFeature(int features, int feature) {
+        return (features & feature) != 0;
+    }
+
+    private static boolean hasInterfaceMethodCalls(ClassReader cr) {
+        // skip access_flags, this_class, super_class and interfaces
+        int u = cr.header + 6;
+        u += 2 + 2 * cr.readUnsignedShort(u);
+
+        int fieldCount = cr.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < fieldCount; i++) {
+            u = skipAttributes(cr, u + 6);
+        }
+
+        int methodCount = cr.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < methodCount; i++) {
+            int attributeCount = cr.readUnsignedShort(u + 6);
+            u += 8;
+            for (int j = 0; j < attributeCount; j++) {
+                int length = cr.readInt(u + 2);
+                if (utf8Equals(cr, cr.getItem(cr.readUnsignedShort(u)), CODE_ATTRIBUTE)) {
+                    // skip attribute_name_index, attribute_length, max_stack and max_locals
+                    int codeLength = cr.readInt(u + 10);
+                    if (hasInterfaceMethodCalls(cr, u + 14, codeLength)) {
+                        return true;
+                    }
+                }
+                u += 6 + length;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasInterfaceMethodCalls(ClassReader cr, int codeStart, int codeLength) {
+        byte[] b = cr.b;
+        int codeEnd = codeStart + codeLength;
+        int u = codeStart;
+        while (u < codeEnd) {
+            int opcode = b[u] & 0xFF;
+            switch (opcode) {
+                case INVOKESTATIC:
+                case INVOKESPECIAL:
+                    if (ConstantPool.getTag(cr, cr.readUnsignedShort(u + 1)) == ConstantPool.INTERFACE_METHODREF) {
+                        return true;
+                    }
+                    u += 3;
+                    break;
+                case TABLESWITCH: {
+                    // the operands are 4-byte aligned relative to the start of the code
+                    int operands = codeStart + ((u - codeStart + 4) & ~3);
+                    int low = cr.readInt(operands + 4);
+                    int high = cr.readInt(operands + 8);
+                    u = operands + 12 + 4 * (high - low + 1);
+                    break;
+                }
+                case LOOKUPSWITCH: {
+                    int operands = codeStart + ((u - codeStart + 4) & ~3);
+                    int pairs = cr.readInt(operands + 4);
+                    u = operands + 8 + 8 * pairs;
+                    break;
+                }
+                case WIDE:
+                    u += (b[u + 1] & 0xFF) == IINC ? 6 : 4;
+                    break;
+                default:
+                    u += INSTRUCTION_LENGTHS[opcode];
+            }
+        }
+        return false;
+    }
+
+    private static int skipAttributes(ClassReader cr, int u) {
+        int attributeCount = cr.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < attributeCount; i++) {
+            u += 6 + cr.readInt(u + 2);
+        }
+        return u;
+    }
+
+    private static boolean ownerEquals(ClassReader cr, int memberRef, byte[] expected) {
+        int classItem = cr.getItem(cr.readUnsignedShort(cr.getItem(memberRef)));
+        return utf8Equals(cr, cr.getItem(cr.readUnsignedShort(classItem)), expected);
+    }
+
+    private static boolean nameEquals(ClassReader cr, int memberRef, byte[] expected) {
+        int nameAndTypeItem = cr.getItem(cr.readUnsignedShort(cr.getItem(memberRef) + 2));
+        return utf8Equals(cr, cr.getItem(cr.readUnsignedShort(nameAndTypeItem)), expected);
+    }
+
+    private static boolean utf8Equals(ClassReader cr, int utf8Item, byte[] expected) {
+        byte[] b = cr.b;
+        if (cr.readUnsignedShort(utf8Item) != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (b[utf8Item + 2 + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
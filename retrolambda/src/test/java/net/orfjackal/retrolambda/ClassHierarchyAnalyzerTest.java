@@ -249,6 +249,71 @@ public class ClassHierarchyAnalyzerTest {
     }
 
 
+    @Test
+    public void default_methods_are_stubbed_only_where_not_inherited_from_superclass() {
+        analyze(DefaultMethods.class,
+                ChangesDefault.class,
+                InheritsDefault.class,
+                ExtendsInheritsDefault.class,
+                ExtendsInheritsDefaultAndChangesDefault.class);
+
+        assertThat("implements", analyzer.getDefaultMethodStubs(Type.getType(InheritsDefault.class)),
+                containsInAnyOrder(
+                        new MethodInfo("foo", "()V", DefaultMethods.class, new MethodKind.Default(
+                                new MethodRef(DefaultMethods$.class, "foo", "(Lnet/orfjackal/retrolambda/ClassHierarchyAnalyzerTest$DefaultMethods;)V")))));
+
+        assertThat("inherits stub", analyzer.getDefaultMethodStubs(Type.getType(ExtendsInheritsDefault.class)),
+                is(empty()));
+
+        assertThat("changes default impl", analyzer.getDefaultMethodStubs(Type.getType(ExtendsInheritsDefaultAndChangesDefault.class)),
+                containsInAnyOrder(
+                        new MethodInfo("foo", "()V", ChangesDefault.class, new MethodKind.Default(
+                                new MethodRef(ChangesDefault$.class, "foo", "(Lnet/orfjackal/retrolambda/ClassHierarchyAnalyzerTest$ChangesDefault;)V")))));
+    }
+
+    private interface ChangesDefault extends DefaultMethods {
+        @Override
+        default void foo() {
+        }
+    }
+
+    private interface ChangesDefault$ {
+    }
+
+    class ExtendsInheritsDefault extends InheritsDefault {
+    }
+
+    class ExtendsInheritsDefaultAndChangesDefault extends InheritsDefault implements ChangesDefault {
+    }
+
+
+    // Dependencies
+
+    @Test
+    public void dependents_of_an_interface() {
+        List<ClassInfo> classes = asList(
+                analyzer.analyze(readBytecode(DefaultMethods.class)),
+                analyzer.analyze(readBytecode(InheritsDefault.class)),
+                analyzer.analyze(readBytecode(OverridesDefault.class)),
+                analyzer.analyze(readBytecode(InheritsOverridesDefault.class)),
+                analyzer.analyze(readBytecode(CallsInterfaceStaticMethod.class)),
+                analyzer.analyze(readBytecode(BaseClass.class)));
+
+        assertThat("referenced interfaces", typesToClasses(new ArrayList<>(classes.get(4).getReferencedInterfaces())),
+                is(classList(InterfaceMethodTypes.class)));
+
+        assertThat("dependents", typesToClasses(new ArrayList<>(new ClassDependencies(classes).getDependents(
+                        asList(Type.getType(DefaultMethods.class), Type.getType(InterfaceMethodTypes.class))))),
+                containsInAnyOrder(InheritsDefault.class, OverridesDefault.class, InheritsOverridesDefault.class, CallsInterfaceStaticMethod.class));
+    }
+
+    private static class CallsInterfaceStaticMethod {
+        void foo() {
+            InterfaceMethodTypes.staticMethod();
+        }
+    }
+
+
     @Test
     public void inheriting_same_default_methods_through_many_parent_interfaces() {
         analyze(SuperOriginal.class,
@@ -399,6 +464,29 @@ public class ClassHierarchyAnalyzerTest {
         assertThat(target, is(source));
     }
 
+    @Test
+    public void reanalyzing_an_interface_forgets_the_static_methods_of_its_previous_version() {
+        MethodRef removed = new MethodRef(InterfaceMethodTypes.class, "removedStaticMethod", voidMethod());
+        analyzer.addRelocatedMethod(removed, new MethodRef(InterfaceMethodTypes$.class, "removedStaticMethod", voidMethod()));
+
+        analyze(InterfaceMethodTypes.class);
+
+        assertThat("removed", analyzer.getMethodCallTarget(removed), is(removed));
+        MethodRef source = new MethodRef(InterfaceMethodTypes.class, "staticMethod", voidMethod());
+        assertThat("current", analyzer.getMethodCallTarget(source), is(new MethodRef(InterfaceMethodTypes$.class, "staticMethod", voidMethod())));
+    }
+
+    @Test
+    public void relocated_methods_can_be_looked_up_by_owner() {
+        analyze(InterfaceMethodTypes.class, ClassMethodTypes.class);
+
+        MethodRef source = new MethodRef(InterfaceMethodTypes.class, "staticMethod", voidMethod());
+        MethodRef target = new MethodRef(InterfaceMethodTypes$.class, "staticMethod", voidMethod());
+        assertThat("interface", analyzer.getRelocatedMethods(Type.getType(InterfaceMethodTypes.class)),
+                is(Collections.singletonMap(source, target)));
+        assertThat("class", analyzer.getRelocatedMethods(Type.getType(ClassMethodTypes.class)).isEmpty(), is(true));
+    }
+
 
     // Default method implementations
 
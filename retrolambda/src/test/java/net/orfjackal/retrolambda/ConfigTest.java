@@ -6,10 +6,10 @@
 package net.orfjackal.retrolambda;
 
 import org.junit.*;
-import org.junit.rules.ExpectedException;
+import org.junit.rules.*;
 
-import java.io.File;
-import java.nio.file.Paths;
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -20,6 +20,9 @@ public class ConfigTest {
     @Rule
     public final ExpectedException thrown = ExpectedException.none();
 
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
     private final Properties systemProperties = new Properties();
 
     private Config config() {
@@ -81,4 +84,56 @@ public class ConfigTest {
         systemProperties.setProperty(Config.INCLUDED_FILES, "/foo/one.class" + File.pathSeparator + "/foo/two.class");
         assertThat("multiple values", config().getIncludedFiles(), is(Arrays.asList(Paths.get("/foo/one.class"), Paths.get("/foo/two.class"))));
     }
+
+    @Test
+    public void included_files_file() throws IOException {
+        Path filesFile = tempDir.newFile("included.txt").toPath();
+        Files.write(filesFile, Arrays.asList("/foo/one.class", "", "/foo/two.class"));
+
+        systemProperties.setProperty(Config.INCLUDED_FILES_FILE, filesFile.toString());
+        assertThat("read from file", config().getIncludedFiles(), is(Arrays.asList(Paths.get("/foo/one.class"), Paths.get("/foo/two.class"))));
+
+        systemProperties.setProperty(Config.INCLUDED_FILES, "/foo/three.class");
+        assertThat("combined with the property", config().getIncludedFiles(), is(Arrays.asList(Paths.get("/foo/three.class"), Paths.get("/foo/one.class"), Paths.get("/foo/two.class"))));
+    }
+
+    @Test
+    public void threads() {
+        assertThat("defaults to one", config().getThreads(), is(1));
+
+        systemProperties.setProperty(Config.THREADS, "4");
+        assertThat("can override the default", config().getThreads(), is(4));
+    }
+
+    @Test
+    public void lambda_synthesis() {
+        assertThat("defaults to disabled", config().isLambdaSynthesisEnabled(), is(false));
+
+        systemProperties.setProperty(Config.SYNTHESIZE_LAMBDAS, "true");
+        assertThat("can override the default", config().isLambdaSynthesisEnabled(), is(true));
+    }
+
+    @Test
+    public void cache_dir() {
+        assertThat("defaults to no caching", config().getCacheDir(), is(nullValue()));
+
+        systemProperties.setProperty(Config.CACHE_DIR, "/foo/cache");
+        assertThat("can override the default", config().getCacheDir(), is(Paths.get("/foo/cache")));
+    }
+
+    @Test
+    public void index_file() {
+        assertThat("defaults to none", config().getIndexFile(), is(nullValue()));
+
+        systemProperties.setProperty(Config.INDEX_FILE, "/foo/index");
+        assertThat("can override the default", config().getIndexFile(), is(Paths.get("/foo/index")));
+    }
+
+    @Test
+    public void daemon() {
+        assertThat("defaults to disabled", config().isDaemonEnabled(), is(false));
+
+        systemProperties.setProperty(Config.DAEMON, "true");
+        assertThat("can override the default", config().isDaemonEnabled(), is(true));
+    }
 }
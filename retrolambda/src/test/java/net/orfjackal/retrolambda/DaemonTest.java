@@ -0,0 +1,141 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DaemonTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private Path infoFile;
+    private Daemon daemon;
+    private Future<?> daemonRun;
+
+    @Before
+    public void startDaemon() throws Exception {
+        infoFile = tempDir.getRoot().toPath().resolve("daemon.properties");
+        daemon = new Daemon(infoFile, (int) TimeUnit.MINUTES.toMillis(1));
+        daemonRun = executor.submit(() -> {
+            daemon.run();
+            return null;
+        });
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!Files.exists(infoFile)) {
+            assertThat("timed out waiting for the daemon to start", System.currentTimeMillis(), is(lessThan(deadline)));
+            Thread.sleep(10);
+        }
+    }
+
+    @After
+    public void stopDaemon() throws Exception {
+        daemon.stop();
+        daemonRun.get(10, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void ignores_requests_with_a_wrong_access_token() throws IOException {
+        List<String> response = request("wrong-token", validConfig());
+
+        assertThat(response, is(empty()));
+    }
+
+    @Test
+    public void responds_with_the_help_text_when_the_configuration_is_incomplete() throws IOException {
+        List<String> response = request(readInfo().getProperty("token"), new Properties());
+
+        assertThat(response.get(0), containsString(Daemon.OUTPUT_PREFIX + "Usage: java "));
+        assertThat(response.get(response.size() - 1), is(Daemon.EXIT_PREFIX + "1"));
+    }
+
+    @Test
+    public void responds_with_the_output_and_the_exit_code_of_Retrolambda() throws IOException {
+        List<String> response = request(readInfo().getProperty("token"), validConfig());
+
+        assertThat(response, hasItem(Daemon.OUTPUT_PREFIX + "Input directory:  " + tempDir.getRoot().toPath().resolve("input")));
+        assertThat(response.get(response.size() - 1), is(Daemon.EXIT_PREFIX + "0"));
+    }
+
+    @Test
+    public void processes_concurrent_requests_separately() throws Exception {
+        String token = readInfo().getProperty("token");
+        Properties config1 = validConfig();
+        Properties config2 = validConfig();
+        config2.setProperty(Config.INPUT_DIR, Files.createDirectory(tempDir.getRoot().toPath().resolve("input2")).toString());
+
+        Future<List<String>> response1 = executor.submit(() -> request(token, config1));
+        Future<List<String>> response2 = executor.submit(() -> request(token, config2));
+
+        assertThat(response1.get(), hasItem(Daemon.OUTPUT_PREFIX + "Input directory:  " + config1.getProperty(Config.INPUT_DIR)));
+        assertThat(response1.get(), not(hasItem(Daemon.OUTPUT_PREFIX + "Input directory:  " + config2.getProperty(Config.INPUT_DIR))));
+        assertThat(response1.get(), hasItem(Daemon.EXIT_PREFIX + "0"));
+        assertThat(response2.get(), hasItem(Daemon.OUTPUT_PREFIX + "Input directory:  " + config2.getProperty(Config.INPUT_DIR)));
+        assertThat(response2.get(), not(hasItem(Daemon.OUTPUT_PREFIX + "Input directory:  " + config1.getProperty(Config.INPUT_DIR))));
+        assertThat(response2.get(), hasItem(Daemon.EXIT_PREFIX + "0"));
+    }
+
+    @Test
+    public void removes_the_info_file_when_stopped() throws Exception {
+        daemon.stop();
+        daemonRun.get(10, TimeUnit.SECONDS);
+
+        assertThat(Files.exists(infoFile), is(false));
+    }
+
+
+    // helpers
+
+    private Properties validConfig() throws IOException {
+        Path inputDir = tempDir.getRoot().toPath().resolve("input");
+        if (!Files.exists(inputDir)) {
+            Files.createDirectory(inputDir);
+        }
+        Properties config = new Properties();
+        config.setProperty(Config.INPUT_DIR, inputDir.toString());
+        config.setProperty(Config.CLASSPATH, inputDir.toString());
+        return config;
+    }
+
+    private Properties readInfo() throws IOException {
+        Properties info = new Properties();
+        try (Reader in = Files.newBufferedReader(infoFile, StandardCharsets.UTF_8)) {
+            info.load(in);
+        }
+        return info;
+    }
+
+    private List<String> request(String token, Properties config) throws IOException {
+        Properties info = readInfo();
+        try (Socket socket = new Socket(info.getProperty("host"), Integer.parseInt(info.getProperty("port")))) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(token + "\n");
+            config.store(out, null);
+            out.flush();
+            socket.shutdownOutput();
+
+            List<String> lines = new ArrayList<>();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class NonDelegatingClassLoaderTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void finds_the_resources_of_every_classpath_element() throws IOException {
+        Path dir1 = tempDir.newFolder("dir1").toPath();
+        Path dir2 = tempDir.newFolder("dir2").toPath();
+        Path dir3 = tempDir.newFolder("dir3").toPath();
+        String name = "META-INF/services/pkg.Service";
+        for (Path dir : asList(dir1, dir3)) {
+            Files.createDirectories(dir.resolve(name).getParent());
+            Files.write(dir.resolve(name), new byte[0]);
+        }
+
+        try (NonDelegatingClassLoader loader = new NonDelegatingClassLoader(asList(dir1, dir2, dir3))) {
+            List<URL> resources = Collections.list(loader.getResources(name));
+
+            assertThat(resources, is(asList(dir1.resolve(name).toUri().toURL(), dir3.resolve(name).toUri().toURL())));
+            assertThat(loader.getResource(name), is(dir1.resolve(name).toUri().toURL()));
+        }
+    }
+
+    @Test
+    public void finds_the_resources_of_the_parent_class_loader() throws IOException {
+        Path dir = tempDir.newFolder("dir").toPath();
+        String name = "java/lang/Object.class";
+
+        try (NonDelegatingClassLoader loader = new NonDelegatingClassLoader(asList(dir))) {
+            assertThat(Collections.list(loader.getResources(name)), is(not(empty())));
+        }
+    }
+}
@@ -6,14 +6,18 @@ package net.orfjackal.retrolambda;
 
 import org.junit.*;
 import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.*;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.jar.*;
+import java.util.zip.ZipEntry;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.*;
 
 public class RetrolambdaTest {
 
@@ -53,6 +57,13 @@ public class RetrolambdaTest {
         assertThat(visitedFiles, containsInAnyOrder(file1, file2, fileInSubdir));
     }
 
+    @Test
+    public void visits_all_files_recursively_in_parallel() throws IOException {
+        Retrolambda.visitFiles(inputDir, null, visitor, 4);
+
+        assertThat(visitedFiles, containsInAnyOrder(file1, file2, fileInSubdir));
+    }
+
     @Test
     public void when_included_files_is_set_then_visits_only_those_files() throws IOException {
         List<Path> includedFiles = Arrays.asList(file1, fileInSubdir);
@@ -70,4 +81,72 @@ public class RetrolambdaTest {
 
         assertThat(visitedFiles, containsInAnyOrder(file1));
     }
+
+    @Test
+    public void ignores_included_files_that_do_not_exist() throws IOException {
+        List<Path> includedFiles = Arrays.asList(file1, inputDir.resolve("deleted.txt"));
+
+        Retrolambda.visitFiles(inputDir, includedFiles, visitor);
+
+        assertThat(visitedFiles, containsInAnyOrder(file1));
+    }
+
+    @Test
+    public void copies_the_resources_of_an_input_JAR_file_to_an_output_directory() throws Throwable {
+        Path inputJar = tempDir.getRoot().toPath().resolve("input.jar");
+        Path outputDir = tempDir.getRoot().toPath().resolve("outputDir");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(inputJar), manifest)) {
+            out.putNextEntry(new ZipEntry("META-INF/services/"));
+            out.putNextEntry(new ZipEntry("META-INF/services/pkg.Service"));
+            out.write("pkg.Impl".getBytes(StandardCharsets.UTF_8));
+            out.putNextEntry(new ZipEntry("pkg/Foo.class"));
+            out.write(emptyClass("pkg/Foo"));
+        }
+
+        Properties p = new Properties();
+        p.setProperty(Config.BYTECODE_VERSION, String.valueOf(Opcodes.V1_6));
+        p.setProperty(Config.INPUT_DIR, inputJar.toString());
+        p.setProperty(Config.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(Config.CLASSPATH, inputJar.toString());
+        p.setProperty(Config.SYNTHESIZE_LAMBDAS, "true");
+        Retrolambda.run(new Config(p));
+
+        assertThat(new String(Files.readAllBytes(outputDir.resolve("META-INF/services/pkg.Service")), StandardCharsets.UTF_8),
+                is("pkg.Impl"));
+        try (InputStream in = Files.newInputStream(outputDir.resolve("META-INF/MANIFEST.MF"))) {
+            assertThat(new Manifest(in), is(manifest));
+        }
+        assertThat(new ClassReader(Files.readAllBytes(outputDir.resolve("pkg/Foo.class"))).readInt(4), is(Opcodes.V1_6));
+    }
+
+    @Test
+    public void JAR_file_entries_outside_the_output_directory_are_rejected() throws Throwable {
+        Path inputJar = tempDir.getRoot().toPath().resolve("input.jar");
+        Path outputDir = tempDir.getRoot().toPath().resolve("outputDir");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(inputJar))) {
+            out.putNextEntry(new ZipEntry("../escaped.txt"));
+        }
+
+        Properties p = new Properties();
+        p.setProperty(Config.INPUT_DIR, inputJar.toString());
+        p.setProperty(Config.OUTPUT_DIR, outputDir.toString());
+        p.setProperty(Config.CLASSPATH, inputJar.toString());
+        p.setProperty(Config.SYNTHESIZE_LAMBDAS, "true");
+        try {
+            Retrolambda.run(new Config(p));
+            Assert.fail("should have thrown an exception");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("outside the output directory"));
+        }
+        assertThat(Files.exists(tempDir.getRoot().toPath().resolve("escaped.txt")), is(false));
+    }
+
+    private static byte[] emptyClass(String name) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
 }
@@ -0,0 +1,118 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda;
+
+import com.google.common.io.ByteStreams;
+import net.orfjackal.retrolambda.interfaces.ClassHierarchyAnalyzer;
+import org.junit.Test;
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class TransformersTest {
+
+    private static final int TARGET_VERSION = V1_7;
+
+    private final ClassHierarchyAnalyzer analyzer = new ClassHierarchyAnalyzer();
+
+    @Test
+    public void classes_which_need_no_changes_differ_only_by_their_version() {
+        byte[] original = readBytecode(NeedsNoChanges.class);
+        analyzer.analyze(original);
+
+        byte[] backported = new Transformers(TARGET_VERSION, true, false, analyzer).backportClass(new ClassReader(original));
+
+        assertThat("version", new ClassReader(backported).readInt(4), is(TARGET_VERSION));
+        assertThat("length", backported.length, is(original.length));
+        assertThat("magic", Arrays.copyOfRange(backported, 0, 4), is(Arrays.copyOfRange(original, 0, 4)));
+        assertThat("rest of the class", Arrays.copyOfRange(backported, 8, backported.length), is(Arrays.copyOfRange(original, 8, original.length)));
+    }
+
+    @Test
+    public void classes_which_are_already_old_enough_are_copied_as_is() {
+        byte[] original = readBytecode(NeedsNoChanges.class);
+        analyzer.analyze(original);
+
+        byte[] backported = new Transformers(V1_8, true, false, analyzer).backportClass(new ClassReader(original));
+
+        assertThat(backported, is(original));
+    }
+
+    private static class NeedsNoChanges implements Runnable {
+        @Override
+        public void run() {
+            System.out.println("hello");
+        }
+    }
+
+    @Test
+    public void classes_which_inherit_default_methods_get_the_stubs() {
+        analyzer.analyze(readBytecode(HasDefaultMethod.class));
+        byte[] original = readBytecode(InheritsDefaultMethod.class);
+        analyzer.analyze(original);
+
+        byte[] backported = new Transformers(TARGET_VERSION, true, false, analyzer).backportClass(new ClassReader(original));
+
+        assertThat(methodNames(backported), hasItem("foo"));
+    }
+
+    @Test
+    public void classes_which_inherit_default_methods_differ_only_by_their_version_when_default_methods_are_disabled() {
+        analyzer.analyze(readBytecode(HasDefaultMethod.class));
+        byte[] original = readBytecode(InheritsDefaultMethod.class);
+        analyzer.analyze(original);
+
+        byte[] backported = new Transformers(TARGET_VERSION, false, false, analyzer).backportClass(new ClassReader(original));
+
+        assertThat(backported, is(LowerBytecodeVersion.lowerBytecodeVersion(original, TARGET_VERSION)));
+    }
+
+    private interface HasDefaultMethod {
+        default void foo() {
+        }
+    }
+
+    private static class InheritsDefaultMethod implements HasDefaultMethod {
+    }
+
+    @Test
+    public void classes_are_always_transformed_when_NatJ_support_is_enabled() {
+        byte[] original = readBytecode(NeedsNoChanges.class);
+        analyzer.analyze(original);
+
+        byte[] backported = new Transformers(TARGET_VERSION, true, true, analyzer).backportClass(new ClassReader(original));
+
+        assertThat(new ClassReader(backported).readInt(4), is(TARGET_VERSION));
+        assertThat(backported, is(not(LowerBytecodeVersion.lowerBytecodeVersion(original, TARGET_VERSION))));
+    }
+
+
+    // helpers
+
+    private static List<String> methodNames(byte[] bytecode) {
+        List<String> names = new ArrayList<>();
+        new ClassReader(bytecode).accept(new ClassVisitor(ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                names.add(name);
+                return null;
+            }
+        }, 0);
+        return names;
+    }
+
+    private static byte[] readBytecode(Class<?> clazz) {
+        try (InputStream in = clazz.getResourceAsStream("/" + Type.getType(clazz).getInternalName() + ".class")) {
+            return ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
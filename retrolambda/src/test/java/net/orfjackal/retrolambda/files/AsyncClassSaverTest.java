@@ -0,0 +1,89 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class AsyncClassSaverTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    private Path outputDir;
+
+    @Before
+    public void setup() throws IOException {
+        outputDir = tempDir.newFolder("output").toPath();
+    }
+
+    @Test
+    public void writes_all_classes_before_finishing() throws IOException {
+        try (AsyncClassSaver saver = new AsyncClassSaver(outputDir, 2)) {
+            for (int i = 0; i < 500; i++) {
+                saver.save("pkg" + (i % 10) + "/Class" + i, bytecode(i));
+            }
+            saver.finish();
+        }
+
+        assertAllClassesWritten(500);
+    }
+
+    @Test
+    public void closing_without_finishing_waits_for_the_queued_classes() throws IOException {
+        try (AsyncClassSaver saver = new AsyncClassSaver(outputDir, 1)) {
+            for (int i = 0; i < 500; i++) {
+                saver.save("pkg" + (i % 10) + "/Class" + i, bytecode(i));
+            }
+        }
+
+        assertAllClassesWritten(500);
+    }
+
+    @Test
+    public void saving_after_finishing_is_an_error() throws IOException {
+        try (AsyncClassSaver saver = new AsyncClassSaver(outputDir, 1)) {
+            saver.finish();
+
+            thrown.expect(IllegalStateException.class);
+            saver.save("Late", bytecode(0));
+        }
+    }
+
+    @Test
+    public void reports_the_unchecked_exceptions_of_the_writers() throws IOException {
+        try (AsyncClassSaver saver = new AsyncClassSaver(outputDir, 1)) {
+            // the NUL character causes an InvalidPathException
+            saver.save("Invalid\0Name", bytecode(0));
+
+            thrown.expect(IOException.class);
+            thrown.expectCause(instanceOf(InvalidPathException.class));
+            saver.finish();
+        }
+    }
+
+    private void assertAllClassesWritten(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Path file = outputDir.resolve("pkg" + (i % 10) + "/Class" + i + ".class");
+            assertThat(file.toString(), Files.readAllBytes(file), is(bytecode(i)));
+        }
+    }
+
+    private static byte[] bytecode(int i) {
+        byte[] bytes = new byte[1000 + i];
+        bytes[0] = (byte) i;
+        bytes[bytes.length - 1] = (byte) (i >> 8);
+        return bytes;
+    }
+}
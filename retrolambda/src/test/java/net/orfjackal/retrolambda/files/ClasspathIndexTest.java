@@ -0,0 +1,171 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import com.google.common.io.ByteStreams;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static java.util.Arrays.asList;
+import static net.orfjackal.retrolambda.files.JarReaderTest.addEntry;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ClasspathIndexTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void reads_files_from_directories() throws IOException {
+        Path dir = tempDir.newFolder("dir").toPath();
+        writeFile(dir, "pkg/Foo.class", "dir Foo");
+        writeFile(dir, "Root.class", "dir Root");
+
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(dir))) {
+            assertThat(read(classpath, "pkg/Foo.class"), is("dir Foo"));
+            assertThat(read(classpath, "Root.class"), is("dir Root"));
+            assertThat(classpath.read("pkg/Bar.class"), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void reads_files_from_JAR_files() throws IOException {
+        Path jar = writeJar("lib.jar", "pkg/Foo.class", "jar Foo", "Root.class", "jar Root");
+
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(jar))) {
+            assertThat(read(classpath, "pkg/Foo.class"), is("jar Foo"));
+            assertThat(read(classpath, "Root.class"), is("jar Root"));
+            assertThat(classpath.read("pkg/Bar.class"), is(nullValue()));
+            assertThat(classpath.read("other/Foo.class"), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void reads_ZIP64_files_with_java_util_zip() throws IOException {
+        Path jar = tempDir.getRoot().toPath().resolve("zip64.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            addEntry(out, "pkg/Foo.class", "zip64 Foo".getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+            // more entries than fit in the end of central directory record
+            for (int i = 0; i < 0xFFFF; i++) {
+                addEntry(out, "many/" + i, new byte[0], ZipEntry.STORED);
+            }
+        }
+
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(jar))) {
+            assertThat(read(classpath, "pkg/Foo.class"), is("zip64 Foo"));
+            assertThat(classpath.read("pkg/Bar.class"), is(nullValue()));
+            assertThat(readUrl(classpath.getUrl("pkg/Foo.class")), is("zip64 Foo"));
+        }
+    }
+
+    @Test
+    public void the_earlier_classpath_elements_take_precedence() throws IOException {
+        Path dir = tempDir.newFolder("dir").toPath();
+        writeFile(dir, "pkg/Foo.class", "dir Foo");
+        Path jar = writeJar("lib.jar", "pkg/Foo.class", "jar Foo", "pkg/Bar.class", "jar Bar");
+
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(dir, jar))) {
+            assertThat("directory first", read(classpath, "pkg/Foo.class"), is("dir Foo"));
+            assertThat("only in the JAR file", read(classpath, "pkg/Bar.class"), is("jar Bar"));
+        }
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(jar, dir))) {
+            assertThat("JAR file first", read(classpath, "pkg/Foo.class"), is("jar Foo"));
+        }
+    }
+
+    @Test
+    public void finds_a_package_which_is_split_between_JAR_files() throws IOException {
+        Path jar1 = writeJar("lib1.jar", "pkg/Foo.class", "jar1 Foo", "other/Foo.class", "jar1 other");
+        Path jar2 = writeJar("lib2.jar", "pkg/Bar.class", "jar2 Bar", "pkg/Foo.class", "jar2 Foo");
+
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(jar1, jar2))) {
+            assertThat(read(classpath, "pkg/Foo.class"), is("jar1 Foo"));
+            assertThat(read(classpath, "pkg/Bar.class"), is("jar2 Bar"));
+            assertThat(read(classpath, "other/Foo.class"), is("jar1 other"));
+            assertThat("a package's elements are cached after the first lookup", read(classpath, "pkg/Bar.class"), is("jar2 Bar"));
+        }
+    }
+
+    @Test
+    public void the_URLs_point_to_the_files() throws IOException {
+        Path dir = tempDir.newFolder("dir").toPath();
+        writeFile(dir, "pkg/Foo.txt", "dir Foo");
+        Path jar = writeJar("lib.jar", "pkg/Foo.txt", "jar Foo", "pkg/Bar.txt", "jar Bar");
+
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(dir, jar))) {
+            assertThat(readUrl(classpath.getUrl("pkg/Foo.txt")), is("dir Foo"));
+            assertThat(readUrl(classpath.getUrl("pkg/Bar.txt")), is("jar Bar"));
+            assertThat(classpath.getUrl("pkg/Baz.txt"), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void lists_the_URLs_of_all_the_files_of_the_same_name() throws IOException {
+        Path dir = tempDir.newFolder("dir").toPath();
+        writeFile(dir, "META-INF/services/Foo", "dir");
+        Path jar1 = writeJar("lib1.jar", "META-INF/services/Foo", "jar1");
+        Path jar2 = writeJar("lib2.jar", "META-INF/services/Bar", "jar2");
+
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(jar1, jar2, dir))) {
+            List<String> contents = new ArrayList<>();
+            for (URL url : classpath.getUrls("META-INF/services/Foo")) {
+                contents.add(readUrl(url));
+            }
+            assertThat(contents, is(asList("jar1", "dir")));
+            assertThat(classpath.getUrls("META-INF/services/Baz"), is(empty()));
+        }
+    }
+
+    @Test
+    public void ignores_classpath_elements_which_do_not_exist() throws IOException {
+        Path dir = tempDir.newFolder("dir").toPath();
+        writeFile(dir, "pkg/Foo.class", "dir Foo");
+        Path missing = tempDir.getRoot().toPath().resolve("missing.jar");
+
+        try (ClasspathIndex classpath = new ClasspathIndex(asList(missing, dir))) {
+            assertThat(read(classpath, "pkg/Foo.class"), is("dir Foo"));
+        }
+    }
+
+
+    // helpers
+
+    private Path writeJar(String name, String... namesAndContents) throws IOException {
+        Path jar = tempDir.getRoot().toPath().resolve(name);
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                addEntry(out, namesAndContents[i], namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+            }
+        }
+        return jar;
+    }
+
+    private static void writeFile(Path dir, String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(ClasspathIndex classpath, String name) throws IOException {
+        return new String(classpath.read(name), StandardCharsets.UTF_8);
+    }
+
+    private static String readUrl(URL url) throws IOException {
+        // don't leave the JAR file open in the JarURLConnection's cache
+        URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        try (InputStream in = connection.getInputStream()) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.*;
+import java.util.zip.ZipEntry;
+
+import static net.orfjackal.retrolambda.files.JarReaderTest.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class JarClassSaverTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Path output;
+
+    @Before
+    public void setup() throws IOException {
+        output = tempDir.getRoot().toPath().resolve("output.jar");
+    }
+
+    @Test
+    public void the_manifest_stays_as_the_first_entry() throws IOException {
+        Path input = tempDir.getRoot().toPath().resolve("input.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "pkg.Main");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(input), manifest)) {
+            addEntry(out, "pkg/Main.class", content(100), ZipEntry.DEFLATED);
+            addEntry(out, "pkg/resource.txt", content(200), ZipEntry.STORED);
+        }
+
+        try (JarReader jar = new JarReader(input);
+             JarClassSaver saver = new JarClassSaver(output)) {
+            for (JarReader.Entry entry : jar.getEntries()) {
+                if (!entry.isClassFile()) {
+                    saver.copyResource(jar, entry);
+                }
+            }
+            saver.save("pkg/Main", content(100));
+            saver.finish();
+        }
+
+        try (JarInputStream in = new JarInputStream(Files.newInputStream(output))) {
+            assertThat(in.getManifest(), is(manifest));
+        }
+        try (JarReader jar = new JarReader(output)) {
+            assertThat(names(jar), contains("META-INF/MANIFEST.MF", "pkg/resource.txt", "pkg/Main.class"));
+            assertThat(jar.read(jar.getEntries().get(1)), is(content(200)));
+        }
+    }
+
+    @Test
+    public void lambda_classes_are_written_right_before_their_invoker() throws IOException {
+        try (JarClassSaver saver = new JarClassSaver(output)) {
+            saver.save("pkg/Foo$$Lambda$1", content(10));
+            saver.save("pkg/Bar$$Lambda$1", content(20));
+            saver.save("pkg/Foo$$Lambda$2", content(30));
+            saver.save("pkg/Bar", content(40));
+            saver.save("pkg/Foo", content(50));
+            saver.finish();
+        }
+
+        try (JarReader jar = new JarReader(output)) {
+            assertThat(names(jar), contains(
+                    "pkg/Bar$$Lambda$1.class",
+                    "pkg/Bar.class",
+                    "pkg/Foo$$Lambda$1.class",
+                    "pkg/Foo$$Lambda$2.class",
+                    "pkg/Foo.class"));
+            assertThat(jar.read(jar.getEntries().get(2)), is(content(10)));
+        }
+    }
+
+    @Test
+    public void lambda_classes_without_a_saved_invoker_are_written_at_the_end() throws IOException {
+        try (JarClassSaver saver = new JarClassSaver(output)) {
+            saver.save("pkg/Foo$$Lambda$1", content(10));
+            saver.save("pkg/Foo", null);
+            saver.save("pkg/Bar$$Lambda$1", content(20));
+            saver.save("pkg/Baz", content(30));
+            saver.finish();
+        }
+
+        try (JarReader jar = new JarReader(output)) {
+            assertThat(names(jar), contains("pkg/Foo$$Lambda$1.class", "pkg/Baz.class", "pkg/Bar$$Lambda$1.class"));
+        }
+    }
+
+    @Test
+    public void the_JAR_file_is_replaced_only_after_finishing() throws IOException {
+        Files.write(output, content(10));
+
+        try (JarClassSaver saver = new JarClassSaver(output)) {
+            saver.save("pkg/Foo", content(100));
+        }
+
+        assertThat("original file", Files.readAllBytes(output), is(content(10)));
+        assertThat("temporary files", listFiles(tempDir.getRoot().toPath()), contains("output.jar"));
+    }
+
+    private static List<String> listFiles(Path dir) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class JarReaderTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void reads_deflated_entries() throws IOException {
+        Path jar = tempDir.newFile("test.jar").toPath();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            addEntry(out, "Foo.class", content(10000), ZipEntry.DEFLATED);
+            addEntry(out, "empty.txt", new byte[0], ZipEntry.DEFLATED);
+        }
+
+        try (JarReader reader = new JarReader(jar)) {
+            assertThat(names(reader), contains("Foo.class", "empty.txt"));
+            assertThat(reader.read(reader.getEntries().get(0)), is(content(10000)));
+            assertThat(reader.read(reader.getEntries().get(1)), is(new byte[0]));
+        }
+    }
+
+    @Test
+    public void reads_stored_entries() throws IOException {
+        Path jar = tempDir.newFile("test.jar").toPath();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            addEntry(out, "Foo.class", content(10000), ZipEntry.STORED);
+        }
+
+        try (JarReader reader = new JarReader(jar)) {
+            assertThat(names(reader), contains("Foo.class"));
+            assertThat(reader.read(reader.getEntries().get(0)), is(content(10000)));
+        }
+    }
+
+    @Test
+    public void recognizes_class_files() throws IOException {
+        Path jar = tempDir.newFile("test.jar").toPath();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            addEntry(out, "META-INF/MANIFEST.MF", content(10), ZipEntry.DEFLATED);
+            addEntry(out, "pkg/Foo.class", content(10), ZipEntry.DEFLATED);
+        }
+
+        try (JarReader reader = new JarReader(jar)) {
+            assertThat("manifest", reader.getEntries().get(0).isClassFile(), is(false));
+            assertThat("class", reader.getEntries().get(1).isClassFile(), is(true));
+        }
+    }
+
+    @Test
+    public void ZIP64_files_are_not_supported() throws IOException {
+        Path jar = tempDir.newFile("test.jar").toPath();
+        ByteBuffer end = ByteBuffer.allocate(JarReader.END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(JarReader.END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) 0xFFFF);
+        end.putShort((short) 0xFFFF);
+        end.putInt(0xFFFFFFFF);
+        end.putInt(0xFFFFFFFF);
+        end.putShort((short) 0);
+        Files.write(jar, end.array());
+
+        thrown.expect(ZipException.class);
+        thrown.expectMessage("ZIP64 files are not supported");
+        new JarReader(jar).close();
+    }
+
+    @Test
+    public void fails_on_files_which_are_not_JAR_files() throws IOException {
+        Path jar = tempDir.newFile("test.jar").toPath();
+        Files.write(jar, content(100));
+
+        thrown.expect(ZipException.class);
+        thrown.expectMessage("Not a JAR file");
+        new JarReader(jar).close();
+    }
+
+    static void addEntry(ZipOutputStream out, String name, byte[] content, int method) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+
+    static List<String> names(JarReader reader) {
+        List<String> names = new ArrayList<>();
+        for (JarReader.Entry entry : reader.getEntries()) {
+            names.add(entry.name);
+        }
+        return names;
+    }
+
+    static byte[] content(int size) {
+        // compressible, but not trivially
+        byte[] content = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return content;
+    }
+}
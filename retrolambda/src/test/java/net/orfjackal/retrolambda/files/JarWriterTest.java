@@ -0,0 +1,132 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import com.google.common.io.ByteStreams;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static net.orfjackal.retrolambda.files.JarReaderTest.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class JarWriterTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Path output;
+
+    @Before
+    public void setup() throws IOException {
+        output = tempDir.getRoot().toPath().resolve("output.jar");
+    }
+
+    @Test
+    public void written_entries_can_be_read_back() throws IOException {
+        try (JarWriter writer = new JarWriter(output)) {
+            writer.write("pkg/Foo.class", content(10000));
+            writer.write("pkg/Empty.class", new byte[0]);
+        }
+
+        try (JarReader reader = new JarReader(output)) {
+            assertThat(names(reader), contains("pkg/Foo.class", "pkg/Empty.class"));
+            assertThat(reader.read(reader.getEntries().get(0)), is(content(10000)));
+            assertThat(reader.read(reader.getEntries().get(1)), is(new byte[0]));
+        }
+        try (ZipFile zip = new ZipFile(output.toFile())) {
+            assertThat(readZipEntry(zip, "pkg/Foo.class"), is(content(10000)));
+            assertThat(readZipEntry(zip, "pkg/Empty.class"), is(new byte[0]));
+        }
+    }
+
+    @Test
+    public void entries_which_were_compressed_beforehand_are_the_same_as_others() throws IOException {
+        Path other = tempDir.getRoot().toPath().resolve("other.jar");
+        try (JarWriter writer = new JarWriter(output)) {
+            writer.write("Foo.class", content(10000));
+        }
+        try (JarWriter writer = new JarWriter(other)) {
+            writer.write(JarWriter.deflate("Foo.class", content(10000)));
+        }
+
+        assertThat(Files.readAllBytes(other), is(Files.readAllBytes(output)));
+    }
+
+    @Test
+    public void copies_stored_and_deflated_entries_byte_for_byte() throws IOException {
+        Path input = tempDir.getRoot().toPath().resolve("input.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+            addEntry(out, "stored.txt", content(1000), ZipEntry.STORED);
+            addEntry(out, "deflated.txt", content(2000), ZipEntry.DEFLATED);
+        }
+
+        try (JarReader reader = new JarReader(input);
+             JarWriter writer = new JarWriter(output)) {
+            for (JarReader.Entry entry : reader.getEntries()) {
+                writer.copy(reader, entry);
+            }
+        }
+
+        try (JarReader original = new JarReader(input);
+             JarReader copy = new JarReader(output)) {
+            assertThat(names(copy), is(names(original)));
+            for (int i = 0; i < original.getEntries().size(); i++) {
+                JarReader.Entry a = original.getEntries().get(i);
+                JarReader.Entry b = copy.getEntries().get(i);
+                assertThat(a.name + " method", b.method, is(a.method));
+                assertThat(a.name + " raw data", toBytes(copy.getRawData(b)), is(toBytes(original.getRawData(a))));
+            }
+        }
+        try (ZipFile zip = new ZipFile(output.toFile())) {
+            assertThat(readZipEntry(zip, "stored.txt"), is(content(1000)));
+            assertThat(readZipEntry(zip, "deflated.txt"), is(content(2000)));
+        }
+    }
+
+    @Test
+    public void writes_only_the_first_entry_of_the_same_name() throws IOException {
+        try (JarWriter writer = new JarWriter(output)) {
+            writer.write("Foo.class", content(100));
+            writer.write("Foo.class", content(200));
+        }
+
+        try (JarReader reader = new JarReader(output)) {
+            assertThat(names(reader), contains("Foo.class"));
+            assertThat(reader.read(reader.getEntries().get(0)), is(content(100)));
+        }
+    }
+
+    @Test
+    public void the_same_entries_produce_the_same_JAR_file() throws IOException {
+        Path other = tempDir.getRoot().toPath().resolve("other.jar");
+        for (Path jar : Arrays.asList(output, other)) {
+            try (JarWriter writer = new JarWriter(jar)) {
+                writer.write("Foo.class", content(100));
+                writer.write("Bar.class", content(200));
+            }
+        }
+
+        assertThat(Files.readAllBytes(other), is(Files.readAllBytes(output)));
+    }
+
+    private static byte[] readZipEntry(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
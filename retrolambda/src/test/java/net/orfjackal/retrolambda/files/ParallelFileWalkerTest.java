@@ -0,0 +1,66 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ParallelFileWalkerTest {
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Path root;
+
+    @Before
+    public void setup() throws IOException {
+        root = tempDir.getRoot().toPath();
+        // created out of order, so that the file system is not likely to list them sorted
+        for (String file : Arrays.asList("b/2.txt", "c.txt", "b/1.txt", "a/z/3.txt", "a.txt", "a/y.txt", "b/a/4.txt")) {
+            Path path = root.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.createFile(path);
+        }
+    }
+
+    @Test
+    public void visits_the_files_of_a_directory_before_its_subdirectories_and_both_in_name_order() throws IOException {
+        for (int threads = 1; threads <= 4; threads++) {
+            List<String> visited = new ArrayList<>();
+            ParallelFileWalker.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    visited.add(root.relativize(file).toString().replace('\\', '/'));
+                    return FileVisitResult.CONTINUE;
+                }
+            }, threads);
+
+            assertThat("threads " + threads, visited, is(Arrays.asList(
+                    "a.txt", "c.txt", "a/y.txt", "a/z/3.txt", "b/1.txt", "b/2.txt", "b/a/4.txt")));
+        }
+    }
+
+    @Test
+    public void stops_visiting_when_the_visitor_terminates() throws IOException {
+        List<String> visited = new ArrayList<>();
+        ParallelFileWalker.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                visited.add(root.relativize(file).toString());
+                return visited.size() == 2 ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+            }
+        }, 2);
+
+        assertThat(visited, is(Arrays.asList("a.txt", "c.txt")));
+    }
+}
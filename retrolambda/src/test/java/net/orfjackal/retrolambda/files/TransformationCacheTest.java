@@ -0,0 +1,128 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.files;
+
+import com.google.common.hash.HashCode;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class TransformationCacheTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Path cacheDir;
+    private TransformationCache cache;
+    private final long now = System.currentTimeMillis();
+
+    @Before
+    public void setup() throws IOException {
+        cacheDir = tempDir.getRoot().toPath().resolve("cache");
+        cache = new TransformationCache(cacheDir, "config");
+    }
+
+    @Test
+    public void removes_the_entries_which_have_not_been_used_for_a_long_time() throws IOException {
+        cache.put("aa01", "Old", classes("Old"));
+        cache.put("aa02", "Recent", classes("Recent"));
+        setAge("aa01", TransformationCache.MAX_UNUSED_DAYS + 1);
+        setAge("aa02", TransformationCache.MAX_UNUSED_DAYS - 1);
+
+        cache.removeUnusedEntries(now);
+
+        assertThat("old entry", cache.get("aa01"), is(nullValue()));
+        assertThat("recent entry", cache.get("aa02"), hasKey("Recent"));
+    }
+
+    @Test
+    public void using_an_entry_keeps_it_in_the_cache() throws IOException {
+        cache.put("aa01", "Used", classes("Used"));
+        setAge("aa01", TransformationCache.MAX_UNUSED_DAYS + 1);
+
+        assertThat(cache.get("aa01"), hasKey("Used"));
+        cache.removeUnusedEntries(now);
+
+        assertThat(cache.get("aa01"), hasKey("Used"));
+    }
+
+    @Test
+    public void removes_the_unused_entries_at_most_once_a_day() throws IOException {
+        cache.removeUnusedEntries(now);
+        cache.put("aa01", "Old", classes("Old"));
+        setAge("aa01", TransformationCache.MAX_UNUSED_DAYS + 1);
+
+        cache.removeUnusedEntries(now);
+        assertThat("same day", Files.exists(getFile("aa01")), is(true));
+
+        Files.setLastModifiedTime(cacheDir.resolve("last-cleanup"), FileTime.fromMillis(now - 2 * DAY));
+        cache.removeUnusedEntries(now);
+        assertThat("next day", Files.exists(getFile("aa01")), is(false));
+    }
+
+    @Test
+    public void does_not_remove_other_files_in_the_cache_directory() throws IOException {
+        Path other = cacheDir.resolve("other/file");
+        Files.createDirectories(other.getParent());
+        Files.write(other, new byte[0]);
+        Files.setLastModifiedTime(other, FileTime.fromMillis(now - 365 * DAY));
+
+        cache.removeUnusedEntries(now);
+
+        assertThat(Files.exists(other), is(true));
+    }
+
+    @Test
+    public void the_implementation_hash_changes_when_any_class_file_changes() throws IOException {
+        Path dir = tempDir.newFolder("classes").toPath();
+        Path foo = dir.resolve("pkg/Foo.class");
+        Files.createDirectories(foo.getParent());
+        Files.write(foo, new byte[]{1});
+        Files.write(dir.resolve("pkg/Bar.class"), new byte[]{2});
+        HashCode original = TransformationCache.hashCode(dir);
+
+        Files.write(foo, new byte[]{3});
+
+        assertThat(TransformationCache.hashCode(dir), is(not(original)));
+    }
+
+    @Test
+    public void the_implementation_hash_of_a_JAR_file_changes_when_the_file_changes() throws IOException {
+        Path jar = tempDir.getRoot().toPath().resolve("retrolambda.jar");
+        Files.write(jar, new byte[]{1});
+        HashCode original = TransformationCache.hashCode(jar);
+
+        Files.write(jar, new byte[]{2});
+
+        assertThat(TransformationCache.hashCode(jar), is(not(original)));
+    }
+
+
+    // helpers
+
+    private Path getFile(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    private void setAge(String key, int days) throws IOException {
+        Files.setLastModifiedTime(getFile(key), FileTime.fromMillis(now - days * DAY));
+    }
+
+    private static Map<String, byte[]> classes(String className) {
+        Map<String, byte[]> classes = new HashMap<>();
+        classes.put(className, new byte[]{1, 2, 3});
+        return classes;
+    }
+}
@@ -0,0 +1,49 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.junit.Test;
+import org.objectweb.asm.*;
+
+import java.lang.invoke.MethodType;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+
+public class InvokerTypesTest {
+
+    private static final Handle METAFACTORY = new Handle(H_INVOKESTATIC, LambdaNaming.LAMBDA_METAFACTORY, "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;");
+
+    @Test
+    public void the_lookup_has_the_access_of_the_invoker() {
+        InvokerTypes types = InvokerTypes.of(Invoker1.class);
+
+        assertThat(types.lookup.lookupClass(), is(equalTo((Object) Invoker1.class)));
+        assertThat(InvokerTypes.of(Invoker1.class), is(sameInstance(types)));
+    }
+
+    @Test
+    public void the_lambda_metafactory_is_shared_by_all_invokers() throws Exception {
+        assertThat(InvokerTypes.of(Invoker1.class).toBootstrapMethodHandle(METAFACTORY),
+                is(sameInstance(InvokerTypes.of(Invoker2.class).toBootstrapMethodHandle(METAFACTORY))));
+    }
+
+    @Test
+    public void resolves_the_method_types_of_the_invokers_own_classes() {
+        Type type = Type.getMethodType(Type.getType(Invoker1.class), Type.getType(String.class), Type.INT_TYPE);
+
+        MethodType methodType = InvokerTypes.of(Invoker2.class).toMethodType(type);
+
+        assertThat(methodType, is(MethodType.methodType(Invoker1.class, String.class, int.class)));
+    }
+
+    private static class Invoker1 {
+    }
+
+    private static class Invoker2 {
+    }
+}
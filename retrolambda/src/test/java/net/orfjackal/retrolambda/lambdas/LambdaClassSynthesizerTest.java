@@ -0,0 +1,68 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.lambdas;
+
+import org.junit.Test;
+import org.objectweb.asm.*;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class LambdaClassSynthesizerTest {
+
+    private static final Handle METAFACTORY = new Handle(H_INVOKESTATIC, LambdaNaming.LAMBDA_METAFACTORY, "metafactory",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;");
+
+    @Test
+    public void calls_static_methods_of_classes_as_class_methods() {
+        Handle implMethod = new Handle(H_INVOKESTATIC, "pkg/Invoker", "lambda$0", "()Ljava/lang/Object;");
+
+        assertThat(implMethodCalls(implMethod, false), contains("184 pkg/Invoker.lambda$0 itf=false"));
+    }
+
+    @Test
+    public void calls_static_methods_of_interfaces_as_interface_methods() {
+        Handle implMethod = new Handle(H_INVOKESTATIC, "pkg/Interface", "lambda$0", "()Ljava/lang/Object;");
+
+        assertThat(implMethodCalls(implMethod, true), contains("184 pkg/Interface.lambda$0 itf=true"));
+    }
+
+    @Test
+    public void calls_private_methods_of_interfaces_as_interface_methods() {
+        Handle implMethod = new Handle(H_INVOKESPECIAL, "pkg/Interface", "lambda$0", "()Ljava/lang/Object;");
+
+        assertThat(implMethodCalls(implMethod, true), contains("183 pkg/Interface.lambda$0 itf=true"));
+    }
+
+    private static List<String> implMethodCalls(Handle implMethod, boolean implIsInterfaceMethod) {
+        Type samMethodType = Type.getMethodType("()Ljava/lang/Object;");
+        Type invokedType = implMethod.getTag() == H_INVOKESTATIC
+                ? Type.getMethodType("()Ljava/util/concurrent/Callable;")
+                : Type.getMethodType(Type.getType(Callable.class), Type.getObjectType(implMethod.getOwner()));
+        byte[] bytecode = LambdaClassSynthesizer.synthesize("pkg/Invoker$$Lambda$1", "call", invokedType, METAFACTORY,
+                new Object[]{samMethodType, implMethod, samMethodType}, implIsInterfaceMethod);
+
+        List<String> calls = new ArrayList<>();
+        new ClassReader(bytecode).accept(new ClassVisitor(ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                if (!name.equals("call")) {
+                    return null;
+                }
+                return new MethodVisitor(ASM5) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        calls.add(opcode + " " + owner + "." + name + " itf=" + itf);
+                    }
+                };
+            }
+        }, 0);
+        return calls;
+    }
+}
@@ -0,0 +1,386 @@
+// Copyright © 2013-2015 Esko Luontola <www.orfjackal.net>
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package net.orfjackal.retrolambda.util;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import static net.orfjackal.retrolambda.util.ConstantPoolScanner.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class ConstantPoolScannerTest {
+
+    @Test
+    public void class_with_no_features() {
+        assertThat(scan(NoFeatures.class), is(0));
+    }
+
+    private static class NoFeatures {
+        int foo(List<String> list) {
+            return list.size();
+        }
+    }
+
+    @Test
+    public void lambdas() {
+        assertThat(scan(HasLambda.class), is(LAMBDAS));
+    }
+
+    private static class HasLambda {
+        Callable<String> foo() {
+            return () -> "foo";
+        }
+    }
+
+    @Test
+    public void invokeinterface_is_not_an_interface_method_call_which_needs_backporting() {
+        assertThat(scan(CallsInterfaceMethod.class), is(0));
+    }
+
+    private static class CallsInterfaceMethod {
+        void foo(Runnable r) {
+            r.run();
+        }
+    }
+
+    @Test
+    public void invokestatic_on_an_interface() {
+        assertThat(scan(CallsInterfaceStaticMethod.class), is(INTERFACE_METHOD_CALLS));
+    }
+
+    private static class CallsInterfaceStaticMethod {
+        void foo() {
+            Interface.staticMethod();
+        }
+    }
+
+    @Test
+    public void invokespecial_on_an_interface() {
+        assertThat(scan(CallsInterfaceSuperMethod.class), is(INTERFACE_METHOD_CALLS));
+    }
+
+    private static class CallsInterfaceSuperMethod implements Interface {
+        @Override
+        public void defaultMethod() {
+            Interface.super.defaultMethod();
+        }
+    }
+
+    private interface Interface {
+        static void staticMethod() {
+        }
+
+        default void defaultMethod() {
+        }
+    }
+
+    @Test
+    public void interface_method_call_after_switches() {
+        assertThat("fixture", instructions(CallsInterfaceMethodAfterSwitches.class), hasItems(TABLESWITCH, LOOKUPSWITCH));
+
+        assertThat(scan(CallsInterfaceMethodAfterSwitches.class), is(INTERFACE_METHOD_CALLS));
+    }
+
+    private static class CallsInterfaceMethodAfterSwitches {
+        int foo(int a, int b, Runnable r) {
+            int x;
+            switch (a) {
+                case 1: x = 10; break;
+                case 2: x = 20; break;
+                case 3: x = 30; break;
+                case 4: x = 40; break;
+                default: x = 0;
+            }
+            r.run();
+            switch (b) {
+                case 1: x++; break;
+                case 1000: x--; break;
+                case 1000000: x += 2; break;
+                default: x = -x;
+            }
+            switch (a + b) {
+                case 5: x *= 2; break;
+                case 6: x *= 3; break;
+                case 7: x *= 4; break;
+            }
+            Interface.staticMethod();
+            return x;
+        }
+    }
+
+    @Test
+    public void interface_method_call_after_wide_iinc() {
+        assertThat("fixture", instructions(CallsInterfaceMethodAfterWideIinc.class), hasItem(IINC_WIDE));
+
+        assertThat(scan(CallsInterfaceMethodAfterWideIinc.class), is(INTERFACE_METHOD_CALLS));
+    }
+
+    private static class CallsInterfaceMethodAfterWideIinc {
+        int foo(int x, Runnable r) {
+            r.run();
+            x += 1000;
+            Interface.staticMethod();
+            return x;
+        }
+    }
+
+    @Test
+    public void switches_and_wide_iinc_without_interface_method_calls() {
+        assertThat("fixture", instructions(SwitchesAndWideIinc.class), hasItems(TABLESWITCH, LOOKUPSWITCH, IINC_WIDE));
+
+        assertThat(scan(SwitchesAndWideIinc.class), is(0));
+    }
+
+    private static class SwitchesAndWideIinc {
+        int foo(int a, Runnable r) {
+            int x = 0;
+            switch (a) {
+                case 1: x = 10; break;
+                case 2: x = 20; break;
+                case 3: x = 30; break;
+            }
+            x += 1000;
+            switch (x) {
+                case 1: x++; break;
+                case 100000: x--; break;
+            }
+            r.run();
+            return x;
+        }
+    }
+
+    @Test
+    public void addSuppressed() {
+        assertThat(scan(CallsAddSuppressed.class), is(ADD_SUPPRESSED));
+    }
+
+    private static class CallsAddSuppressed {
+        void foo(Throwable t1, Throwable t2) {
+            t1.addSuppressed(t2);
+        }
+    }
+
+    @Test
+    public void try_with_resources_calls_addSuppressed() {
+        assertThat(scan(TryWithResources.class), is(ADD_SUPPRESSED));
+    }
+
+    private static class TryWithResources {
+        int foo(InputStream in) throws IOException {
+            try (InputStream stream = in) {
+                return stream.read();
+            }
+        }
+    }
+
+    @Test
+    public void a_class_may_have_many_features() {
+        assertThat(scan(HasAllFeatures.class), is(LAMBDAS | INTERFACE_METHOD_CALLS | ADD_SUPPRESSED));
+    }
+
+    private static class HasAllFeatures {
+        Runnable foo(Throwable t1, Throwable t2) {
+            t1.addSuppressed(t2);
+            return Interface::staticMethod;
+        }
+
+        void bar() {
+            Interface.staticMethod();
+        }
+    }
+
+
+    // Instruction operands
+    //
+    // The fixtures of these tests have an interface method call right after the instruction,
+    // or operands which contain the bytes of an interface method call, so that skipping
+    // a wrong number of bytes makes the scanner either miss a call or find one that isn't there.
+
+    private static final String INTERFACE = "pkg/Interface";
+    private static final int INTERFACE_METHOD_INDEX = 0x57; // also the opcode of pop
+    private static final int INTERFACE_METHOD_CALL_BYTES = (INVOKESTATIC << 24) | (INTERFACE_METHOD_INDEX << 8);
+
+    @Test
+    public void interface_method_call_right_after_tableswitch() {
+        for (int padding = 0; padding < 4; padding++) {
+            int features = scanCode(withPadding(padding, mv -> {
+                Label target = new Label();
+                mv.visitVarInsn(ILOAD, 0);
+                mv.visitTableSwitchInsn(0, 2, target, target, target, target);
+                callInterfaceMethod(mv);
+                mv.visitLabel(target);
+            }));
+
+            assertThat("padding " + padding, features, is(INTERFACE_METHOD_CALLS));
+        }
+    }
+
+    @Test
+    public void interface_method_call_right_after_lookupswitch() {
+        for (int padding = 0; padding < 4; padding++) {
+            int features = scanCode(withPadding(padding, mv -> {
+                Label target = new Label();
+                mv.visitVarInsn(ILOAD, 0);
+                mv.visitLookupSwitchInsn(target, new int[]{1, 10, 100}, new Label[]{target, target, target});
+                callInterfaceMethod(mv);
+                mv.visitLabel(target);
+            }));
+
+            assertThat("padding " + padding, features, is(INTERFACE_METHOD_CALLS));
+        }
+    }
+
+    @Test
+    public void tableswitch_operands_are_not_instructions() {
+        for (int padding = 0; padding < 4; padding++) {
+            int features = scanCode(withPadding(padding, mv -> {
+                Label before = new Label();
+                Label after = new Label();
+                mv.visitLabel(before);
+                // the jump offset to before is -240, i.e. the bytes 0xFF 0xFF 0xFF 0x10 (bipush),
+                // which swallows the sipush opcode and leaves its operand as an interface method call
+                for (int i = 0; i < 239; i++) {
+                    mv.visitInsn(NOP);
+                }
+                mv.visitVarInsn(ILOAD, 0);
+                int low = INTERFACE_METHOD_CALL_BYTES;
+                mv.visitTableSwitchInsn(low, low + 3, after, after, after, after, before);
+                mv.visitIntInsn(SIPUSH, (short) (INVOKESTATIC << 8));
+                mv.visitInsn(POP);
+                mv.visitLabel(after);
+            }));
+
+            assertThat("padding " + padding, features, is(0));
+        }
+    }
+
+    @Test
+    public void lookupswitch_operands_are_not_instructions() {
+        for (int padding = 0; padding < 4; padding++) {
+            int features = scanCode(withPadding(padding, mv -> {
+                Label target = new Label();
+                int[] keys = new int[8];
+                Label[] labels = new Label[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = INTERFACE_METHOD_CALL_BYTES + i;
+                    labels[i] = target;
+                }
+                mv.visitVarInsn(ILOAD, 0);
+                mv.visitLookupSwitchInsn(target, keys, labels);
+                mv.visitLabel(target);
+            }));
+
+            assertThat("padding " + padding, features, is(0));
+        }
+    }
+
+    @Test
+    public void interface_method_call_right_after_wide_instructions() {
+        assertThat("wide iinc", scanCode(mv -> {
+            mv.visitIincInsn(300, 1);
+            callInterfaceMethod(mv);
+        }), is(INTERFACE_METHOD_CALLS));
+        assertThat("wide iload", scanCode(mv -> {
+            mv.visitVarInsn(ILOAD, 300);
+            callInterfaceMethod(mv);
+        }), is(INTERFACE_METHOD_CALLS));
+    }
+
+    @Test
+    public void wide_iinc_operands_are_not_instructions() {
+        int features = scanCode(mv -> {
+            mv.visitIincInsn(1, INVOKESTATIC); // too big for iinc, so the increment is the last byte of wide iinc
+            mv.visitInsn(NOP);
+            mv.visitInsn(POP);
+        });
+
+        assertThat(features, is(0));
+    }
+
+    private static Consumer<MethodVisitor> withPadding(int padding, Consumer<MethodVisitor> code) {
+        return mv -> {
+            for (int i = 0; i < padding; i++) {
+                mv.visitInsn(NOP);
+            }
+            code.accept(mv);
+        };
+    }
+
+    private static void callInterfaceMethod(MethodVisitor mv) {
+        mv.visitMethodInsn(INVOKESTATIC, INTERFACE, "foo", "()V", true);
+    }
+
+    private static int scanCode(Consumer<MethodVisitor> code) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, "pkg/Fixture", null, "java/lang/Object", null);
+        // the interface method is the last of the 6 constants which it adds to the constant pool
+        for (int i = 0; cw.newConst(i) < INTERFACE_METHOD_INDEX - 6; i++) {
+        }
+        assertThat("interface method index", cw.newMethod(INTERFACE, "foo", "()V", true), is(INTERFACE_METHOD_INDEX));
+
+        MethodVisitor mv = cw.visitMethod(ACC_STATIC, "foo", "(I)V", null, null);
+        mv.visitCode();
+        code.accept(mv);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(1, 301);
+        mv.visitEnd();
+        cw.visitEnd();
+        return ConstantPoolScanner.scan(new ClassReader(cw.toByteArray()));
+    }
+
+
+    // helpers
+
+    private static final int IINC_WIDE = -IINC;
+
+    private static int scan(Class<?> clazz) {
+        return ConstantPoolScanner.scan(new ClassReader(readBytecode(clazz)));
+    }
+
+    /**
+     * Returns the opcodes of the class's instructions, with {@link #IINC_WIDE} for the {@code wide iinc} instructions.
+     */
+    private static List<Integer> instructions(Class<?> clazz) {
+        List<Integer> opcodes = new ArrayList<>();
+        new ClassReader(readBytecode(clazz)).accept(new ClassVisitor(ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(ASM5) {
+                    @Override
+                    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+                        opcodes.add(TABLESWITCH);
+                    }
+
+                    @Override
+                    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+                        opcodes.add(LOOKUPSWITCH);
+                    }
+
+                    @Override
+                    public void visitIincInsn(int var, int increment) {
+                        opcodes.add(var > 255 || increment != (byte) increment ? IINC_WIDE : IINC);
+                    }
+                };
+            }
+        }, 0);
+        return opcodes;
+    }
+
+    private static byte[] readBytecode(Class<?> clazz) {
+        try (InputStream in = clazz.getResourceAsStream("/" + Type.getType(clazz).getInternalName() + ".class")) {
+            return ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -10,6 +10,15 @@ mvn clean verify \
     --errors \
     -P fork
 
+# Test generating the lambda classes without the lambda metafactory
+
+mvn clean verify \
+    --errors \
+    -P synthesizeLambdas,noDefaultMethods
+mvn clean verify \
+    --errors \
+    -P synthesizeLambdas
+
 # The Maven plugin's minimum requirement is Java 6,
 # but then the plugin must force forking the process
 